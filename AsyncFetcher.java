@@ -0,0 +1,405 @@
+package com.shanebow.spider;
+/********************************************************************
+* Copyright (c) 2010 Richard T. Salamone, Jr.  All rights reserved.
+*
+* AsyncFetcher: An alternative to running each SpiderWorker on a pool
+* thread for the whole of its fetch. Requests are sent with the
+* non-blocking java.net.http.HttpClient, so that thousands may be in
+* flight on the client's few threads, and each completed response is
+* handed to a SpiderWorker on a small pool of processing threads for
+* parsing and the hook.
+*
+* At most asyncMaxInFlight urls are outstanding, counting from the
+* request being sent until its response has been processed. An HTML
+* page is held in memory in the meantime, up to asyncMaxPageSize bytes
+* of it, so that it is parsed without waiting on the network; any other
+* content is streamed to the hook by the processing thread. Urls that
+* are not http or https are fetched by a blocking SpiderWorker on the
+* spider's thread pool.
+*
+* With verifyLeaves, leaf urls are sent as a HEAD, and again as a one
+* byte ranged GET if the server refuses the HEAD; a 416 answering that
+* GET means the url is there, but empty.
+*
+* @author Rick Salamone
+* @version 1.0
+*******************************************************/
+import com.shanebow.spider.work.WorkRecord;
+import com.shanebow.util.SBLog;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+final class AsyncFetcher
+	{
+	public static final String MODULE="AsyncFetcher";
+	private void log( String format, Object... args )
+		{
+		SBLog.write( MODULE, String.format(format, args ));
+		}
+
+	private final Spider m_spider;
+	private final HttpClient m_client;
+	private final ExecutorService m_ioThreads;      // the client's callbacks
+	private final ExecutorService m_processThreads; // parse and hook
+	private final Semaphore m_inFlight;
+	private final int m_maxInFlight;
+	private final AtomicLong m_fetched = new AtomicLong();
+	private final AtomicLong m_failed = new AtomicLong();
+
+	AsyncFetcher( Spider spider )
+		{
+		SpiderOptions opts = spider.getOptions();
+		m_spider = spider;
+		m_maxInFlight = Math.max( 1, opts.asyncMaxInFlight );
+		m_inFlight = new Semaphore( m_maxInFlight );
+		m_ioThreads = Executors.newFixedThreadPool( Math.max( 1, opts.asyncThreads ),
+		                                            daemons( "AsyncFetcher io" ));
+		m_processThreads = Executors.newFixedThreadPool(
+		                       Runtime.getRuntime().availableProcessors(),
+		                       daemons( "AsyncFetcher process" ));
+		m_client = newClient( opts, m_ioThreads, spider.getConnectionStats());
+		}
+
+	/**
+	* Build an HttpClient for the spider. The client keeps a pool of
+	* connections per host, and negotiates HTTP/2 with https servers that
+	* support it, unless http2 is turned off. The client's pool is its own,
+	* not bounded by maxConnectionsPerHost.
+	* @param executor - runs the client's tasks, null for its default
+	* @param stats    - counts the TLS connections the client opens
+	*/
+	static HttpClient newClient( SpiderOptions opts, java.util.concurrent.Executor executor,
+	                             ConnectionStats stats )
+		{
+		HttpClient.Builder builder = HttpClient.newBuilder()
+			.version( opts.http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1 )
+			.connectTimeout( Duration.ofMillis( opts.timeout ))
+			.followRedirects( HttpClient.Redirect.NORMAL );
+		if ( executor != null )
+			builder.executor( executor );
+		javax.net.ssl.SSLContext context = stats.newSSLContext();
+		if ( context != null )
+			builder.sslContext( context );
+		return builder.build();
+		}
+
+	/**
+	* Build the GET request for the work's url, conditional on the
+	* validators of its last fetch if it has any.
+	*/
+	static HttpRequest newRequest( WorkRecord work, SpiderOptions opts )
+		throws java.net.URISyntaxException
+		{
+		HttpRequest.Builder builder = newBuilder( work.getURL(), opts ).GET();
+		if ( work.getETag() != null )
+			builder.header( "If-None-Match", work.getETag());
+		if ( work.getLastModified() != null )
+			builder.header( "If-Modified-Since", work.getLastModified());
+		return builder.build();
+		}
+
+	/**
+	* Build the request that verifies a leaf url exists without
+	* downloading it: a HEAD, or a GET of just its first byte for servers
+	* that refuse HEAD.
+	*/
+	static HttpRequest newVerifyRequest( WorkRecord work, SpiderOptions opts, boolean head )
+		throws java.net.URISyntaxException
+		{
+		HttpRequest.Builder builder = newBuilder( work.getURL(), opts );
+		if ( head )
+			builder.method( "HEAD", HttpRequest.BodyPublishers.noBody());
+		else builder.GET().header( "Range", "bytes=0-0" );
+		return builder.build();
+		}
+
+	/**
+	* Start a request for the url. Plain http is sent as HTTP/1.1, rather
+	* than attempting an upgrade to HTTP/2 on every connection.
+	*/
+	private static HttpRequest.Builder newBuilder( URL url, SpiderOptions opts )
+		throws java.net.URISyntaxException
+		{
+		HttpRequest.Builder builder = HttpRequest.newBuilder( url.toURI())
+			.timeout( Duration.ofMillis( opts.timeout ));
+		if ( url.getProtocol().equalsIgnoreCase("http"))
+			builder.version( HttpClient.Version.HTTP_1_1 );
+		if ( opts.userAgent != null )
+			builder.header( "User-Agent", opts.userAgent );
+		return builder;
+		}
+
+	private static ThreadFactory daemons( final String name )
+		{
+		return new ThreadFactory()
+			{
+			private int m_count = 0;
+			public synchronized Thread newThread( Runnable r )
+				{
+				Thread thread = new Thread( r, name + " " + (++m_count));
+				thread.setDaemon( true );
+				return thread;
+				}
+			};
+		}
+
+	/**
+	* @return true if another url may be fetched without exceeding
+	* asyncMaxInFlight
+	*/
+	boolean hasCapacity() { return m_inFlight.availablePermits() > 0; }
+
+	/**
+	* @return the number of urls fetching or being processed
+	*/
+	int inFlight() { return m_maxInFlight - m_inFlight.availablePermits(); }
+
+	/**
+	* Start fetching the work's url; returns without waiting for the
+	* response. The caller should first check hasCapacity().
+	*/
+	void fetch( final WorkRecord work )
+		{
+		final SpiderWorker worker = new SpiderWorker( m_spider, work );
+		final URL url = work.getURL();
+		String protocol = work.getKey().getProtocol();
+		if ( !protocol.equals("http") && !protocol.equals("https"))
+			{
+			m_spider.execute( worker );
+			return;
+			}
+
+		final boolean verify = worker.verifyOnly();
+		HttpRequest request;
+		try
+			{
+			request = verify ? newVerifyRequest( work, m_spider.getOptions(), true )
+			                 : newRequest( work, m_spider.getOptions());
+			}
+		catch (Exception e) // bad URI or header
+			{
+			worker.urlError( url, e, SpiderHook.ErrorLevel.INFO );
+			return;
+			}
+
+		m_inFlight.acquireUninterruptibly();
+		try
+			{
+			m_spider.getConnectionStats().request( work.getKey());
+			CompletableFuture<HttpResponse<InputStream>> sent
+				= m_client.sendAsync( request, new PageBody( url ));
+			if ( verify )
+				sent = sent.thenCompose( headRefused( work ));
+			sent.whenCompleteAsync( new BiConsumer<HttpResponse<InputStream>,Throwable>()
+					{
+					public void accept( HttpResponse<InputStream> response, Throwable failure )
+						{
+						m_spider.getConnectionStats().response( (response != null)
+						              && response.version() == HttpClient.Version.HTTP_2 );
+						try { complete( worker, work, response, failure ); }
+						finally
+							{
+							m_inFlight.release();
+							m_spider.checkForWork();
+							}
+						}
+					}, m_processThreads );
+			}
+		catch (RuntimeException e) // not sent, so no completion to release the permit
+			{
+			m_inFlight.release();
+			worker.urlError( url, e, SpiderHook.ErrorLevel.SEVERE );
+			}
+		}
+
+	/**
+	* Receives a response body: HTML is read into memory, up to
+	* asyncMaxPageSize bytes, and anything else is passed on as a stream
+	* to be read by the processing thread.
+	*/
+	private final class PageBody
+		implements HttpResponse.BodyHandler<InputStream>
+		{
+		private final URL m_url;
+		PageBody( URL url ) { m_url = url; }
+
+		public HttpResponse.BodySubscriber<InputStream> apply( HttpResponse.ResponseInfo info )
+			{
+			String type = info.headers().firstValue("Content-Type").orElse("");
+			if ( info.statusCode() < 300 && type.toLowerCase().startsWith("text/html"))
+				return new PageSubscriber( m_url, m_spider.getOptions().asyncMaxPageSize );
+			return HttpResponse.BodySubscribers.ofInputStream();
+			}
+		}
+
+	/**
+	* Collects a page in memory. Once it reaches the size limit the rest
+	* of the page is cancelled, closing the connection, and the page is
+	* parsed as far as it goes.
+	*/
+	private final class PageSubscriber
+		implements HttpResponse.BodySubscriber<InputStream>
+		{
+		private final URL m_url;
+		private final int m_limit;
+		private final Page m_page = new Page();
+		private final CompletableFuture<InputStream> m_body = new CompletableFuture<InputStream>();
+		private Flow.Subscription m_subscription;
+
+		PageSubscriber( URL url, int limit )
+			{
+			m_url = url;
+			m_limit = Math.max( 0, limit );
+			}
+
+		public CompletionStage<InputStream> getBody() { return m_body; }
+
+		public void onSubscribe( Flow.Subscription subscription )
+			{
+			m_subscription = subscription;
+			subscription.request( Long.MAX_VALUE );
+			}
+
+		public void onNext( List<ByteBuffer> buffers )
+			{
+			if ( m_body.isDone()) // cancelled
+				return;
+			for ( ByteBuffer buffer : buffers )
+				m_page.append( buffer, m_limit );
+			if ( m_page.size() >= m_limit )
+				{
+				m_subscription.cancel();
+				log( "page cut at %d bytes: %s", m_limit, m_url );
+				onComplete();
+				}
+			}
+
+		public void onError( Throwable failure ) { m_body.completeExceptionally( failure ); }
+		public void onComplete() { m_body.complete( m_page.toInputStream()); }
+		}
+
+	/**
+	* A growing page, read without copying it.
+	*/
+	private static final class Page
+		extends ByteArrayOutputStream
+		{
+		void append( ByteBuffer buffer, int limit )
+			{
+			int n = Math.min( buffer.remaining(), limit - count );
+			if ( n <= 0 )
+				return;
+			if ( buffer.hasArray())
+				write( buffer.array(), buffer.arrayOffset() + buffer.position(), n );
+			else
+				{
+				byte[] bytes = new byte[n];
+				buffer.get( bytes );
+				write( bytes, 0, n );
+				}
+			}
+
+		InputStream toInputStream() { return new ByteArrayInputStream( buf, 0, count ); }
+		}
+
+	/**
+	* @return the step that resends a HEAD refused by the server as a one
+	* byte ranged GET, and passes any other response through. It runs on
+	* the client's executor, so must not block: the response to a HEAD has
+	* no body to drain, and its stream is just closed.
+	*/
+	private Function<HttpResponse<InputStream>,CompletionStage<HttpResponse<InputStream>>>
+	headRefused( final WorkRecord work )
+		{
+		return new Function<HttpResponse<InputStream>,CompletionStage<HttpResponse<InputStream>>>()
+			{
+			public CompletionStage<HttpResponse<InputStream>> apply( HttpResponse<InputStream> response )
+				{
+				if ( !SpiderWorker.refusesHead( response.statusCode()))
+					return CompletableFuture.completedFuture( response );
+				try { response.body().close(); }
+				catch (IOException e) {}
+				try
+					{
+					return m_client.sendAsync( newVerifyRequest( work, m_spider.getOptions(), false ),
+					                           new PageBody( work.getURL()));
+					}
+				catch (Exception e) // cannot happen, the HEAD was built
+					{
+					CompletableFuture<HttpResponse<InputStream>> failed
+						= new CompletableFuture<HttpResponse<InputStream>>();
+					failed.completeExceptionally( e );
+					return failed;
+					}
+				}
+			};
+		}
+
+	/**
+	* Process a completed request on a processing thread.
+	*/
+	private void complete( SpiderWorker worker, WorkRecord work,
+	                       HttpResponse<InputStream> response, Throwable failure )
+		{
+		URL url = work.getURL();
+		if ( failure instanceof CompletionException && failure.getCause() != null )
+			failure = failure.getCause();
+		if ( failure == null && response.statusCode() >= 400
+		&&   !(SpiderWorker.emptyRange( response.statusCode())
+		       && response.request().headers().firstValue("Range").isPresent()))
+			{
+			SpiderWorker.drainAndClose( response.body());
+			failure = new IOException( "HTTP " + response.statusCode() + " " + response.uri());
+			}
+		if ( failure != null )
+			{
+			m_failed.incrementAndGet();
+			worker.urlError( url, failure, (failure instanceof IOException)
+			                 ? SpiderHook.ErrorLevel.INFO : SpiderHook.ErrorLevel.SEVERE );
+			return;
+			}
+		m_fetched.incrementAndGet();
+		URL connURL;
+		try { connURL = response.uri().toURL(); }
+		catch (Exception e) { connURL = url; }
+		if ( worker.verifyOnly())
+			{
+			worker.verified( connURL, response.body());
+			return;
+			}
+		if ( response.statusCode() == 304 ) // recrawl, unchanged
+			{
+			worker.notModified( response.body());
+			return;
+			}
+		work.setValidators( response.headers().firstValue("Last-Modified").orElse(null),
+		                    response.headers().firstValue("ETag").orElse(null));
+		worker.process( connURL, response.headers().firstValue("Content-Type").orElse(null),
+		                response.body());
+		}
+
+	/**
+	* Stop the threads, once the urls in flight have been processed.
+	*/
+	void shutdown()
+		{
+		m_inFlight.acquireUninterruptibly( m_maxInFlight ); // all back
+		m_processThreads.shutdown();
+		m_ioThreads.shutdown();
+		log( "%d fetched, %d failed", m_fetched.get(), m_failed.get());
+		}
+	}
@@ -0,0 +1,241 @@
+package com.shanebow.spider;
+/********************************************************************
+* Copyright (c) 2010 Richard T. Salamone, Jr.  All rights reserved.
+*
+* ConnectionStats: Counts the spider's requests and the connections they
+* are observed to open. Neither URLConnection nor HttpClient reports
+* whether a request reused a connection, but both open a TLS connection
+* through the spider's SSLSocketFactory or SSLContext, which count them:
+* the https requests that did not open one reused a connection.
+*
+* The setup time of each TLS connection, from creating its socket to the
+* end of the handshake, is observed for URLConnection; HttpClient's
+* handshakes cannot be timed. A plain http connection is opened by the
+* runtime itself, so its reuse is not reported.
+*
+* @author Rick Salamone
+* @version 1.0
+*******************************************************/
+import com.shanebow.spider.work.URLKey;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.*;
+
+final class ConnectionStats
+	{
+	private final AtomicLong m_http = new AtomicLong();
+	private final AtomicLong m_https = new AtomicLong();
+	private final AtomicLong m_http2 = new AtomicLong();       // responses over HTTP/2
+	private final AtomicLong m_tlsOpened = new AtomicLong();
+	private final AtomicLong m_tlsTimed = new AtomicLong();    // handshakes observed
+	private final AtomicLong m_tlsSetupNanos = new AtomicLong();
+	private SSLSocketFactory m_socketFactory = null;
+
+	/**
+	* Note a request for the url.
+	*/
+	void request( URLKey url )
+		{
+		if ( url.getProtocol().equals("https"))
+			m_https.incrementAndGet();
+		else m_http.incrementAndGet();
+		}
+
+	/**
+	* Note a response.
+	* @param http2 - true if the response came over HTTP/2
+	*/
+	void response( boolean http2 )
+		{
+		if ( http2 )
+			m_http2.incrementAndGet();
+		}
+
+	/**
+	* @return a socket factory, for HttpsURLConnection, that counts and
+	* times the TLS connections it opens. Always the same factory, as the
+	* keep alive cache only reuses a connection made by the same one.
+	*/
+	synchronized SSLSocketFactory getSocketFactory()
+		{
+		if ( m_socketFactory == null )
+			m_socketFactory = new CountingSocketFactory(
+			                      HttpsURLConnection.getDefaultSSLSocketFactory());
+		return m_socketFactory;
+		}
+
+	/**
+	* @return an SSLContext, for an HttpClient, that counts the TLS
+	* connections it opens, or null if the default context is unavailable
+	*/
+	SSLContext newSSLContext()
+		{
+		final SSLContext context;
+		try { context = SSLContext.getDefault(); }
+		catch (Exception e) { return null; }
+		return new SSLContext( new CountingContextSpi(context),
+		                       context.getProvider(), context.getProtocol()) {};
+		}
+
+	/**
+	* Count a new TLS socket, and time its setup when its handshake ends.
+	*/
+	private Socket opened( Socket socket )
+		{
+		m_tlsOpened.incrementAndGet();
+		if ( socket instanceof SSLSocket )
+			{
+			final long start = System.nanoTime();
+			((SSLSocket)socket).addHandshakeCompletedListener( new HandshakeCompletedListener()
+				{
+				public void handshakeCompleted( HandshakeCompletedEvent event )
+					{
+					event.getSocket().removeHandshakeCompletedListener( this );
+					m_tlsSetupNanos.addAndGet( System.nanoTime() - start );
+					m_tlsTimed.incrementAndGet();
+					}
+				});
+			}
+		return socket;
+		}
+
+	/**
+	* @return the fraction of https requests that reused a connection
+	*/
+	double getReuseRatio()
+		{
+		long https = m_https.get();
+		long reused = Math.max( 0, https - m_tlsOpened.get());
+		return (https == 0) ? 0.0 : (double)reused / https;
+		}
+
+	@Override
+	public String toString()
+		{
+		long https = m_https.get();
+		long opened = m_tlsOpened.get();
+		String report = String.format( "%d requests (%d http, %d https), %d over HTTP/2",
+		                               m_http.get() + https, m_http.get(), https, m_http2.get());
+		if ( https == 0 )
+			return report;
+		report += String.format( "; %d TLS connections opened, %.1f%% of https requests reused one",
+		                         opened, 100 * getReuseRatio());
+		long timed = m_tlsTimed.get();
+		if ( timed > 0 )
+			report += String.format( "; TLS setup averaged %.1fms over %d handshakes",
+			                         m_tlsSetupNanos.get() / 1e6 / timed, timed );
+		return report;
+		}
+
+	/**
+	* Passes socket creation to the default factory, counting the sockets.
+	*/
+	private final class CountingSocketFactory
+		extends SSLSocketFactory
+		{
+		private final SSLSocketFactory m_factory;
+		CountingSocketFactory( SSLSocketFactory factory ) { m_factory = factory; }
+
+		public String[] getDefaultCipherSuites()   { return m_factory.getDefaultCipherSuites(); }
+		public String[] getSupportedCipherSuites() { return m_factory.getSupportedCipherSuites(); }
+
+		public Socket createSocket()
+			throws IOException
+			{
+			return opened( m_factory.createSocket());
+			}
+
+		public Socket createSocket( Socket s, String host, int port, boolean autoClose )
+			throws IOException
+			{
+			return opened( m_factory.createSocket( s, host, port, autoClose ));
+			}
+
+		public Socket createSocket( String host, int port )
+			throws IOException
+			{
+			return opened( m_factory.createSocket( host, port ));
+			}
+
+		public Socket createSocket( String host, int port, InetAddress localHost, int localPort )
+			throws IOException
+			{
+			return opened( m_factory.createSocket( host, port, localHost, localPort ));
+			}
+
+		public Socket createSocket( InetAddress host, int port )
+			throws IOException
+			{
+			return opened( m_factory.createSocket( host, port ));
+			}
+
+		public Socket createSocket( InetAddress address, int port, InetAddress localAddress, int localPort )
+			throws IOException
+			{
+			return opened( m_factory.createSocket( address, port, localAddress, localPort ));
+			}
+		}
+
+	/**
+	* Passes everything to the default context, counting the engines it
+	* creates: an HttpClient creates one for each TLS connection.
+	*/
+	private final class CountingContextSpi
+		extends SSLContextSpi
+		{
+		private final SSLContext m_context;
+		CountingContextSpi( SSLContext context ) { m_context = context; }
+
+		protected void engineInit( KeyManager[] km, TrustManager[] tm, SecureRandom random )
+			throws KeyManagementException
+			{
+			m_context.init( km, tm, random );
+			}
+
+		protected SSLSocketFactory engineGetSocketFactory()
+			{
+			return m_context.getSocketFactory();
+			}
+
+		protected SSLServerSocketFactory engineGetServerSocketFactory()
+			{
+			return m_context.getServerSocketFactory();
+			}
+
+		protected SSLEngine engineCreateSSLEngine()
+			{
+			m_tlsOpened.incrementAndGet();
+			return m_context.createSSLEngine();
+			}
+
+		protected SSLEngine engineCreateSSLEngine( String host, int port )
+			{
+			m_tlsOpened.incrementAndGet();
+			return m_context.createSSLEngine( host, port );
+			}
+
+		protected SSLSessionContext engineGetServerSessionContext()
+			{
+			return m_context.getServerSessionContext();
+			}
+
+		protected SSLSessionContext engineGetClientSessionContext()
+			{
+			return m_context.getClientSessionContext();
+			}
+
+		protected SSLParameters engineGetDefaultSSLParameters()
+			{
+			return m_context.getDefaultSSLParameters();
+			}
+
+		protected SSLParameters engineGetSupportedSSLParameters()
+			{
+			return m_context.getSupportedSSLParameters();
+			}
+		}
+	}
@@ -17,20 +17,40 @@ import com.shanebow.util.SBLog;
 import java.net.*;
 import java.util.Date;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 public class Spider // extends Thread
 	{
 	public static final String MODULE="SPIDER";
 
+	/**
+	* How long to sleep, in milliseconds, when the workload has waiting
+	* urls but will not hand them out yet (e.g. a polite host delay).
+	*/
+	public static final long POLL_WAIT = 100;
+
 	private final SpiderOptions  m_options;
 	private final SpiderHook     m_hook;
 	private final Workload       m_workload;   // list of work(url + status)
 	private final SpiderExecutor m_threadPool; // manages the thread pool
+	private final AsyncFetcher   m_fetcher;    // null unless asyncFetch
+	private final VirtualExecutor m_virtual;   // null unless virtualThreads
+	private final java.net.http.HttpClient m_httpClient; // null unless sharedHttpClient
+	private final ConnectionStats m_connections;
 
 	private Date m_startTime; // when the spider began
 	private Date m_stopTime; // when the spider finished
 
-	private boolean m_canceled = false;
+	private volatile boolean m_canceled = false;
+
+	/**
+	* The dispatcher waits for work without holding the spider's monitor:
+	* it parks, and whoever adds work or frees a worker sets m_signal and
+	* unparks it. So a ConcurrentWorkload add takes no lock here at all.
+	*/
+	private volatile Thread m_dispatcher;
+	private final AtomicBoolean m_signal = new AtomicBoolean();
 
 	public Workload      getWorkload(){ return m_workload; }
 	public SpiderHook    getHook()    { return m_hook; }
@@ -40,7 +60,14 @@ public class Spider // extends Thread
 		{
 		m_hook = hook;
 		m_options = options;
+		m_connections = new ConnectionStats();
 		m_threadPool = new SpiderExecutor(this);
+		m_fetcher = options.asyncFetch ? new AsyncFetcher(this) : null;
+		m_virtual = options.virtualThreads ? new VirtualExecutor(this) : null;
+		m_httpClient = options.sharedHttpClient
+		             ? AsyncFetcher.newClient(options, null, m_connections) : null;
+		if ( System.getProperty("http.maxConnections") == null ) // URLConnection keep alive
+			System.setProperty("http.maxConnections", "" + options.maxConnectionsPerHost);
 
 		Workload w = null;
 		try
@@ -62,6 +89,19 @@ public class Spider // extends Thread
 		m_hook.initialized(this);
 		}
 
+	/**
+	* @return the shared HttpClient for the workers, or null if they each
+	* open a URLConnection
+	*/
+	java.net.http.HttpClient getHttpClient() { return m_httpClient; }
+
+	ConnectionStats getConnectionStats() { return m_connections; }
+
+	/**
+	* @return a summary of the requests and the connections they opened
+	*/
+	public String getConnectionReport() { return m_connections.toString(); }
+
 	private void log( String format, Object... args )
 		{
 		SBLog.write( MODULE, String.format(format, args ));
@@ -73,58 +113,136 @@ public class Spider // extends Thread
 		this.m_startTime = new Date();
 		log( "running at " + this.m_startTime.toString());
 		guardedJoy();
+		if ( m_fetcher != null )
+			m_fetcher.shutdown();
 		m_workload.shutdown();
 		m_threadPool.shutdown();
+		if ( m_virtual != null )
+			m_virtual.shutdown();
+		log( "connections: %s", m_connections );
 		this.m_stopTime = new Date();
 		log( "exiting at " + this.m_stopTime.toString());
 		}
-	public synchronized void cancel() { m_canceled = true; notifyAll(); }
-	
-	public synchronized void guardedJoy()
+	public void cancel() { m_canceled = true; signal(); }
+
+	public void guardedJoy()
 		{
+		m_dispatcher = Thread.currentThread();
 		//This guard only loops once for each special event,
 		// which may not be the event we're waiting for.
-		BlockingQueue<Runnable> q = m_threadPool.getQueue();
 		while( !m_canceled )
 			{
-			try
+			long timeout;
+			try { timeout = dispatch(); }
+			catch (WorkException we)
 				{
-				try
-					{
-					if ( !m_workload.isEmpty())
-						{
-						WorkRecord work;
-						while ((q.remainingCapacity() > 1)
-						   && ((work = m_workload.getWork()) != null))
-							{
-					//		log ( "got work: %s", work );
-							Runnable worker = new SpiderWorker(this, work );
-							m_threadPool.execute(worker);
-							}
-						}
-					else if ( m_threadPool.getActiveCount() == 0 )
-						{
-						log ( "spider finished: normal termination condition" );
-						break;
-						}
-			//		log( "checking... " );
-					}
-				catch (WorkException we) { log("getWork exception: " + we ); }
-		//		log( "waiting");
-				wait();
+				log("getWork exception: " + we );
+				timeout = POLL_WAIT;
+				}
+			if ( timeout < 0 )
+				{
+				log ( "spider finished: normal termination condition" );
+				break;
 				}
-			catch (InterruptedException e) { log( "interupted " + e.toString()); }
+	//		log( "waiting");
+			await(timeout);
 			}
 		log( "EXIT: " + (m_canceled ? "canceled" : "work complete"));
-		while ( m_threadPool.getActiveCount() > 0 ) // cancelled, wait for stragglers
+		while ( activeCount() > 0 ) // cancelled, wait for stragglers
 			{
-			try
+			log( "waiting for %d stragglers", activeCount());
+			await(POLL_WAIT);
+			}
+		}
+
+	/**
+	* Hand out waiting work while there is capacity. The spider's monitor
+	* is held, excluding the serial adds, while the workload is consulted.
+	* @return how long to wait before dispatching again: 0 until signalled,
+	* or -1 when the crawl is finished
+	*/
+	private synchronized long dispatch()
+		throws WorkException
+		{
+		if ( !m_workload.isEmpty())
+			{
+			WorkRecord work = null;
+			while ( hasCapacity()
+			   && ((work = m_workload.getWork()) != null))
 				{
-				log( "waiting for %d stragglers", m_threadPool.getActiveCount());
-				wait();
+		//		log ( "got work: %s", work );
+				if ( m_fetcher != null )
+					m_fetcher.fetch( work );
+				else
+					{
+					Runnable worker = new SpiderWorker(this, work );
+					execute(worker);
+					}
 				}
-			catch (InterruptedException e) {}
+			if ( work == null && !m_workload.isEmpty())
+				return POLL_WAIT; // work is held back, poll for it
+			return 0;
 			}
+		if ( activeCount() == 0 )
+			return -1;
+		return POLL_WAIT; // workers signal while still active
+		}
+
+	/**
+	* Park the dispatcher until signalled, or for timeout milliseconds if
+	* timeout is not 0. Returns at once if signalled since the last call.
+	*/
+	private void await( long timeout )
+		{
+		if ( m_signal.getAndSet(false))
+			return;
+		if ( timeout == 0 )
+			LockSupport.park(this);
+		else LockSupport.parkNanos(this, timeout * 1000000L);
+		}
+
+	/**
+	* Wake the dispatcher, without taking any lock.
+	*/
+	private void signal()
+		{
+		if ( !m_signal.getAndSet(true))
+			{
+			Thread dispatcher = m_dispatcher;
+			if ( dispatcher != null )
+				LockSupport.unpark(dispatcher);
+			}
+		}
+
+	/**
+	* @return the number of urls being fetched or processed
+	*/
+	private int activeCount()
+		{
+		return m_threadPool.getActiveCount()
+		     + ((m_fetcher == null) ? 0 : m_fetcher.inFlight())
+		     + ((m_virtual == null) ? 0 : m_virtual.getActiveCount());
+		}
+
+	/**
+	* @return true if there is room to start on another url
+	*/
+	private boolean hasCapacity()
+		{
+		return (m_threadPool.getQueue().remainingCapacity() > 1)
+		    && ((m_fetcher == null) || m_fetcher.hasCapacity())
+		    && ((m_virtual == null) || m_virtual.hasCapacity());
+		}
+
+	/**
+	* Run a worker on a virtual thread if so configured, otherwise on
+	* the thread pool.
+	*/
+	void execute( Runnable worker )
+		{
+		if ( m_virtual != null )
+			m_virtual.execute(worker);
+		else m_threadPool.execute(worker);
 		}
 
 	/**
@@ -137,33 +255,101 @@ public class Spider // extends Thread
 		catch (Exception e) { return false; }
 		}
 
-	public synchronized boolean addURL( URL url, WorkRecord source )
+	public boolean addURL( URL url, WorkRecord source )
+		throws WorkException
+		{
+		return addURL( URLKey.of(url), source );
+		}
+
+	/**
+	* Add a URL for processing, identified by its URLKey so that no
+	* host name resolution is needed to detect duplicates. Adds to a
+	* ConcurrentWorkload are made without holding the spider's monitor,
+	* or any other lock of the spider's.
+	* @throws WorkException
+	*/
+	public boolean addURL( URLKey url, WorkRecord source )
+		throws WorkException
+		{
+		return addURL( url, source, SpiderHook.URLType.HYPERLINK );
+		}
+
+	/**
+	* Add a URL found on the source page by a link of the specified type,
+	* which the workload keeps with the URL: in verifyLeaves mode only
+	* HYPERLINKs are downloaded.
+	* @throws WorkException
+	*/
+	public boolean addURL( URLKey url, WorkRecord source, SpiderHook.URLType type )
+		throws WorkException
+		{
+		if ( m_workload instanceof ConcurrentWorkload )
+			return addConcurrentURL( url, source, type );
+		synchronized(this) { return addSerialURL( url, source, type ); }
+		}
+
+	private boolean addConcurrentURL( URLKey url, WorkRecord source, SpiderHook.URLType type )
 		throws WorkException
 		{
-		if ((m_options.maxDepth != -1)   // check the depth
-		&&  (source != null)
-		&&  (source.getDepth() >= m_options.maxDepth))
+		if ( tooDeep( source ))
+			return false;
+		if ( m_workload.add(url, source, WorkRecord.WAITING, type))
+			{
+			m_hook.urlAdded(url.toURL(), (source != null)? source.getURL() : null );
+			signal();
+			return true;
+			}
+		return false;
+		}
+
+	private boolean tooDeep( WorkRecord source )
+		{
+		return (m_options.maxDepth != -1)
+		    && (source != null)
+		    && (source.getDepth() >= m_options.maxDepth);
+		}
+
+	private boolean addSerialURL( URLKey url, WorkRecord source, SpiderHook.URLType type )
+		throws WorkException
+		{
+		if ( tooDeep( source ))
 			{
 			// log( "TOO DEEP addURL(%s, _, %d) max depth: %d", url,
 			//        source.getDepth()+1, m_options.maxDepth );
 			return false;
 			}
 
-		if ( m_workload.add(url, source, WorkRecord.WAITING))
+		if ( m_workload.add(url, source, WorkRecord.WAITING, type))
 			{
 			// int depth = (source != null)? source.getDepth() + 1 : 0; 
-			m_hook.urlAdded(url, (source != null)? source.getURL() : null );
-			notifyAll();
+			m_hook.urlAdded(url.toURL(), (source != null)? source.getURL() : null );
+			signal();
 			return true;
 			}
 	// else log( "failed workload.add(%s,%s)", url, source );
 		return false;
 		}
 
-	public synchronized void checkForWork()
+	/**
+	* Save the state of the workload so an interrupted crawl can be resumed.
+	* @throws WorkException if the workload cannot be checkpointed
+	*/
+	public void checkpoint()
+		throws WorkException
+		{
+		if ( !(m_workload instanceof Checkpointable))
+			throw new WorkException( m_workload.getClass().getName() + " cannot checkpoint" );
+		((Checkpointable)m_workload).checkpoint();
+		}
+
+	/**
+	* Called when a worker finishes, or work may otherwise be waiting, to
+	* wake the dispatcher.
+	*/
+	public void checkForWork()
 		{
 	//	log ( "checkForWork()" );
-		notifyAll();
+		signal();
 		}
   /**
    * Generate basic status information about the spider.
@@ -49,6 +49,70 @@ public class SpiderOptions
 	*/
 	public int timeout = 120000; // was 60000;
 
+	/**
+	* Fetch http and https urls with the non-blocking AsyncFetcher rather
+	* than a blocking connection per pool thread.
+	*/
+	public boolean asyncFetch = false;
+
+	/**
+	* The most urls the AsyncFetcher has fetching or awaiting processing.
+	*/
+	public int asyncMaxInFlight = 1000;
+
+	/**
+	* The most bytes of an HTML page that the AsyncFetcher holds in memory
+	* to be parsed: the rest of a longer page is not downloaded. Other
+	* content is not held, but streamed to the hook.
+	*/
+	public int asyncMaxPageSize = 512 * 1024;
+
+	/**
+	* The number of threads the AsyncFetcher's http client runs on.
+	*/
+	public int asyncThreads = 4;
+
+	/**
+	* Run each blocking SpiderWorker on a thread of its own, virtual if the
+	* runtime supports them, rather than on the fixed thread pool.
+	*/
+	public boolean virtualThreads = false;
+
+	/**
+	* The most workers running at once when virtualThreads is set.
+	*/
+	public int virtualMaxConcurrent = 1000;
+
+	/**
+	* The most idle connections URLConnection keeps alive to each host for
+	* reuse. It is applied as the http.maxConnections system property, so
+	* it holds for the whole JVM, and is ignored if that property is set.
+	* The HttpClient of asyncFetch and sharedHttpClient keeps its own pool,
+	* which this does not bound.
+	*/
+	public int maxConnectionsPerHost = 5;
+
+	/**
+	* Have the blocking workers share one HttpClient, with its per host
+	* connection pool, instead of each opening a URLConnection.
+	*/
+	public boolean sharedHttpClient = false;
+
+	/**
+	* Let the HttpClient negotiate HTTP/2 with https servers, multiplexing
+	* the requests to a host on one connection.
+	*/
+	public boolean http2 = true;
+
+	/**
+	* Link checking: images, scripts and stylesheets are only verified to
+	* exist, with a HEAD request, or a one byte ranged GET if the server
+	* refuses HEAD, and are not passed to the hook. Pages reached by a
+	* hyperlink are fetched as usual, but unless they turn out to be HTML
+	* their content is abandoned rather than downloaded.
+	*/
+	public boolean verifyLeaves = false;
+
 	/**
 	* The maximum depth to search pages. -1 specifies no maximum.
 	*/
@@ -82,11 +146,21 @@ public class SpiderOptions
 	public long keepAliveTime = DEFAULT_POOL_KEEP_ALIVE; // 60000; // 60;
 
 	/**
-	* The URL to use for JDBC databases: defaults to URL_SPIDERWORK.
+	* The URL to use for JDBC databases: defaults to URL_SPIDERWORK, an
+	* embedded H2 database under the work directory that needs no server.
+	* Its cache is sized for bulk loading, and a busy row waits rather
+	* than fails.
 	*/
-	public  static final String URL_SPIDERWORK = "jdbc:odbc:APO";
+	public  static final String URL_SPIDERWORK
+		= "jdbc:h2:./spiderwork/spiderwork;CACHE_SIZE=65536;LOCK_TIMEOUT=10000";
 	public String dbURL =  URL_SPIDERWORK;
 
+	/**
+	* Create the tables and indexes of WORKLOAD_SQL that are missing from
+	* the database, as on the first run.
+	*/
+	public boolean dbCreateTables = true;
+
 	/**
 	* The user id to access the JDBC workload database.
 	*/
@@ -97,13 +171,94 @@ public class SpiderOptions
 	*/
 	public String dbPWD;
 
+	/**
+	* The SQL dialect of the workload database: one of H2, DERBY, MYSQL,
+	* ORACLE, POSTGRESQL or GENERIC. Null to recognize it from dbURL.
+	*/
+	public String dbDialect = null;
+
+	/**
+	* The maximum number of JDBC connections to the workload database. The
+	* worker threads, up to maximumPoolSize of them, share these.
+	*/
+	public int dbPoolSize = 4;
+
+	/**
+	* Milliseconds to wait for a free database connection before failing.
+	*/
+	public long dbPoolTimeout = 30000;
+
+	/**
+	* Milliseconds a database connection may sit idle before it is closed.
+	*/
+	public long dbIdleTimeout = 300000;
+
 	/**
 	* The class to use for JDBC connections, used to hold the workload.
-	* Defaults to the Sun JDBC driver.
+	* Defaults to the H2 embedded driver, which must be on the classpath.
 	*/
-	public static final String JDBC_DRIVER = "sun.jdbc.odbc.JdbcOdbcDriver";
+	public static final String JDBC_DRIVER = "org.h2.Driver";
 	public String dbClass = JDBC_DRIVER;
 
+	/**
+	* Number of urls WORKLOAD_SQL buffers before inserting them as one
+	* batch; 1 or less inserts each url as it is added.
+	*/
+	public int sqlBatchSize = 500;
+
+	/**
+	* Maximum milliseconds a url waits in the WORKLOAD_SQL insert buffer.
+	*/
+	public long sqlFlushInterval = 1000;
+
+	/**
+	* Milliseconds between batches of status updates that WORKLOAD_SQL
+	* writes in the background; 0 or less updates each status change as
+	* it happens.
+	*/
+	public long sqlStatusInterval = 500;
+
+	/**
+	* Number of recently added urls WORKLOAD_SQL remembers so that they
+	* are not buffered again.
+	*/
+	public int sqlRecentURLs = 100000;
+
+	/**
+	* Number of waiting urls WORKLOAD_SQL claims, and holds in memory, at
+	* a time. Larger claims mean fewer transactions.
+	*/
+	public int sqlClaimSize = 200;
+
+	/**
+	* Number of errors WORKLOAD_SQL queues for logging to its error table;
+	* errors beyond this are dropped rather than delay the workers.
+	*/
+	public int sqlErrorQueueSize = 10000;
+
+	/**
+	* Recrawl the urls WORKLOAD_SQL has already processed, fetching each
+	* with a conditional GET so that unchanged pages are not downloaded.
+	* They go back to waiting only if the table has no unfinished work, so
+	* a restarted recrawl resumes rather than starting over. With several
+	* nodes, set this on the first node only.
+	*/
+	public boolean recrawl = false;
+
+	/**
+	* Identifies this spider among several sharing one WORKLOAD_SQL table:
+	* the owner of the rows it claims. Defaults to the process id and host.
+	*/
+	public String nodeID = java.lang.management.ManagementFactory.getRuntimeMXBean().getName();
+
+	/**
+	* Milliseconds a WORKLOAD_SQL claim is held. The node renews its leases
+	* while it runs; once a node stops, other nodes reclaim its rows when
+	* their leases expire. Must be at least 3, as leases are renewed every
+	* third of it.
+	*/
+	public long leaseTime = 300000;
+
 	/**
 	* What class to use to process the workload.
 	*/
@@ -111,8 +266,97 @@ public class SpiderOptions
 		= "com.shanebow.spider.work.ram.RAMWorkload";
 	public static final String WORKLOAD_SQL
 		= "com.shanebow.spider.work.sql.SQLWorkload";
+	public static final String WORKLOAD_CONCURRENT
+		= "com.shanebow.spider.work.ram.ConcurrentRAMWorkload";
+	public static final String WORKLOAD_HOST
+		= "com.shanebow.spider.work.ram.HostWorkload";
+	public static final String WORKLOAD_BLOOM
+		= "com.shanebow.spider.work.bloom.BloomWorkload";
+	public static final String WORKLOAD_PRIORITY
+		= "com.shanebow.spider.work.priority.PriorityWorkload";
+	public static final String WORKLOAD_SEGMENT
+		= "com.shanebow.spider.work.seg.SegmentWorkload";
 	public String workload = WORKLOAD_RAM; // fully qualified class name
 
+	/**
+	* Minimum milliseconds between requests to the same host, honored
+	* by WORKLOAD_HOST.
+	*/
+	public long hostMinDelay = 1000;
+
+	/**
+	* Maximum number of requests in progress to the same host, honored
+	* by WORKLOAD_HOST.
+	*/
+	public int hostMaxActive = 2;
+
+	/**
+	* Specifies the class of URLScorer used by WORKLOAD_PRIORITY: null to
+	* use the SpiderHook if it is a URLScorer, or else score by depth.
+	*/
+	public Class<? extends com.shanebow.spider.work.URLScorer> scorerClass = null;
+
+	/**
+	* Maximum number of waiting urls WORKLOAD_PRIORITY keeps in memory,
+	* lower scoring urls overflow to disk.
+	*/
+	public int frontierHeapSize = 100000;
+
+	/**
+	* File to which WORKLOAD_RAM writes the processed records, null for
+	* System.out.
+	*/
+	public String resultsFile = null;
+
+	/**
+	* If true, WORKLOAD_RAM writes each record to the resultsFile as soon
+	* as it is finished and then releases it, remembering only a hash of
+	* its url, so that long crawls run in bounded memory. Otherwise every
+	* record is kept and written at shutdown.
+	*/
+	public boolean retireFinished = false;
+
+	/**
+	* File to which WORKLOAD_RAM saves its state, null for none. The state
+	* is saved at shutdown, every checkpointInterval seconds if that is
+	* positive, and whenever Spider.checkpoint() is called.
+	*/
+	public String checkpointFile = null;
+
+	/**
+	* Seconds between automatic checkpoints, 0 for none.
+	*/
+	public int checkpointInterval = 0;
+
+	/**
+	* If true and the checkpointFile exists, WORKLOAD_RAM resumes the
+	* crawl saved in it.
+	*/
+	public boolean resume = false;
+
+	/**
+	* Directory for the files of disk backed workloads.
+	*/
+	public String workDirectory = "spiderwork";
+
+	/**
+	* Size in bytes of each memory mapped file of WORKLOAD_SEGMENT.
+	*/
+	public int segmentSize = 64 << 20;
+
+	/**
+	* The number of urls the seen set of WORKLOAD_BLOOM and WORKLOAD_SEGMENT
+	* is sized for:
+	* it still works beyond this, but the false positive rate rises.
+	*/
+	public long seenExpectedURLs = 10000000;
+
+	/**
+	* The false positive rate of the seen filter at seenExpectedURLs.
+	* Lower rates cost more bits per url but fewer disk lookups.
+	*/
+	public double seenFalsePositiveRate = 0.01;
+
 	/*
 	* Specifies a class to be used a filter
 	*/
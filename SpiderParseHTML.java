@@ -30,6 +30,7 @@ import com.shanebow.web.html.HTMLTag;
 import com.shanebow.web.html.URLUtility;
 import com.shanebow.spider.Spider;
 import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.work.URLKey;
 import com.shanebow.spider.work.WorkException;
 import com.shanebow.spider.work.WorkRecord;
 import com.shanebow.util.SBLog;
@@ -56,6 +57,7 @@ public class SpiderParseHTML extends ParseHTML
 	* The URL that is being parsed.
 	*/
 	private WorkRecord m_work;
+	private URL m_url;
 	private URL m_base;
 	public final URL getBase() { return m_base; }
 	public final void setBase(URL base) { m_base = base; }
@@ -81,7 +83,8 @@ public class SpiderParseHTML extends ParseHTML
 		this.stream = is;
 		this.spider = spider;
 		m_work = work;
-		m_base = work.getURL();
+		m_url = work.getURL();
+		m_base = m_url;
 		}
 
 	/**
@@ -199,14 +202,15 @@ public class SpiderParseHTML extends ParseHTML
 			{
 			URL url = URLUtility.constructURL(m_base, u, true);
 			url = WorkRecord.toURL(url.toString());
-			String lcProtocol = url.getProtocol().toLowerCase();
+			URLKey key = URLKey.of(url);
+			String lcProtocol = key.getProtocol();
 			if (lcProtocol.equals("http")
 			||  lcProtocol.equals("https")
 			||  lcProtocol.equals("file")) // base.getProtocol())
 				{
-				if (this.spider.getHook().urlFound(url, m_work.getURL(), type))
+				if (this.spider.getHook().urlFound(url, m_url, type))
 					{
-					try { this.spider.addURL(url, m_work ); }
+					try { this.spider.addURL(key, m_work, type ); }
 					catch (WorkException e) { throw new IOException(e.getMessage()); }
 					}
 				}
@@ -28,12 +28,17 @@ package com.shanebow.spider;
 * 20100517 RTS constructor accepts a WorkRecord rather than a URL 
 * 20100517 RTS modified to use SBLog 
 */
+import com.shanebow.spider.work.ErrorLog;
+import com.shanebow.spider.work.URLKey;
 import com.shanebow.spider.work.WorkException;
 import com.shanebow.spider.work.WorkRecord;
 import com.shanebow.util.SBLog;
 import java.io.*;
 import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
 import java.lang.reflect.Constructor;
+import javax.net.ssl.HttpsURLConnection;
 
 public class SpiderWorker
 	implements Runnable
@@ -53,6 +58,31 @@ public class SpiderWorker
 	*/
 	static Constructor htmlParserConstructor;
 
+	/**
+	* The most bytes read from the unread remainder of a response so that
+	* its connection can be kept alive; longer responses are just closed.
+	*/
+	private static final int DRAIN_LIMIT = 64 * 1024;
+
+	/**
+	* @return true if the status answering a HEAD request means the server
+	* does not support HEAD, rather than that the url is broken
+	*/
+	static boolean refusesHead( int status )
+		{
+		return (status == 405) || (status == 501); // Method Not Allowed, Not Implemented
+		}
+
+	/**
+	* @return true if the status answering the one byte ranged GET of a
+	* leaf means the url exists: a server answers 416, Range Not
+	* Satisfiable, for an empty file as it has no first byte to send
+	*/
+	static boolean emptyRange( int status )
+		{
+		return status == 416;
+		}
+
 	/**
 	* Member variables
 	*/
@@ -77,27 +107,223 @@ public class SpiderWorker
 	public void run()
 		{
 		URL workURL = m_work.getURL();
-		URL connURL = null;
 		URLConnection connection = null;
-		InputStream is = null;
+		String protocol = m_work.getKey().getProtocol();
+		boolean http = protocol.equals("http") || protocol.equals("https");
+		if ( http )
+			m_spider.getConnectionStats().request(m_work.getKey());
+		boolean http2 = false;
 
 		try
 			{
-			// get the URL's contents
-			connection = workURL.openConnection();
-			connection.setConnectTimeout(m_spider.getOptions().timeout);
-			connection.setReadTimeout(m_spider.getOptions().timeout);
-			if (m_spider.getOptions().userAgent != null)
+			boolean verify = http && verifyOnly();
+			HttpClient client = m_spider.getHttpClient();
+			if ( http && client != null ) // the shared client
+				{
+				HttpResponse<InputStream> response = client.send( verify
+					? AsyncFetcher.newVerifyRequest(m_work, m_spider.getOptions(), true)
+					: AsyncFetcher.newRequest(m_work, m_spider.getOptions()),
+					HttpResponse.BodyHandlers.ofInputStream());
+				boolean ranged = false;
+				if ( verify && refusesHead(response.statusCode()))
+					{
+					drainAndClose(response.body());
+					response = client.send(
+						AsyncFetcher.newVerifyRequest(m_work, m_spider.getOptions(), false),
+						HttpResponse.BodyHandlers.ofInputStream());
+					ranged = true;
+					}
+				http2 = response.version() == HttpClient.Version.HTTP_2;
+				if ( response.statusCode() >= 400
+				&&   !(ranged && emptyRange(response.statusCode())))
+					{
+					drainAndClose(response.body());
+					throw new IOException( "HTTP " + response.statusCode() + " " + response.uri());
+					}
+				if ( verify )
+					{
+					verified( response.uri().toURL(), response.body());
+					return;
+					}
+				if ( response.statusCode() == 304 )
+					{
+					notModified(response.body());
+					return;
+					}
+				m_work.setValidators( response.headers().firstValue("Last-Modified").orElse(null),
+				                      response.headers().firstValue("ETag").orElse(null));
+				process( response.uri().toURL(),
+				           response.headers().firstValue("Content-Type").orElse(null), response.body());
+				return;
+				}
+
+			if ( verify ) // a leaf, check it is there
 				{
-				connection.setRequestProperty("User-Agent", m_spider.getOptions().userAgent);
+				connection = openConnection(workURL, "HEAD");
+				if ( refusesHead(((HttpURLConnection)connection).getResponseCode()))
+					{
+					drainAndClose(((HttpURLConnection)connection).getErrorStream());
+					connection = openConnection(workURL, "GET");
+					connection.setRequestProperty("Range", "bytes=0-0");
+					if ( emptyRange(((HttpURLConnection)connection).getResponseCode()))
+						{
+						verified( connection.getURL(), ((HttpURLConnection)connection).getErrorStream());
+						return;
+						}
+					}
+				InputStream is = connection.getInputStream();
+				verified( connection.getURL(), is );
+				return;
 				}
 
+			// get the URL's contents
+			connection = openConnection(workURL, "GET");
+			if (m_work.getETag() != null) // recrawl, conditional GET
+				connection.setRequestProperty("If-None-Match", m_work.getETag());
+			if (m_work.getLastModified() != null)
+				connection.setRequestProperty("If-Modified-Since", m_work.getLastModified());
+
 			// read the URL
-			connURL = connection.getURL();
-			if (!workURL.equals(connURL)) // save the URL(for redirect's)
+			URL connURL = connection.getURL();
+			InputStream is = connection.getInputStream();
+			if (( connection instanceof HttpURLConnection )
+			&&  ((HttpURLConnection)connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED )
+				{
+				notModified( is );
+				return;
+				}
+			m_work.setValidators( connection.getHeaderField("Last-Modified"),
+			                      connection.getHeaderField("ETag"));
+			process( connURL, connection.getContentType(), is );
+			}
+		catch (IOException e)
+			{
+			if ( connection instanceof HttpURLConnection ) // error page
+				drainAndClose(((HttpURLConnection)connection).getErrorStream());
+			urlError( workURL, e, SpiderHook.ErrorLevel.INFO );
+			}
+		catch (Throwable e)
+			{
+			urlError( workURL, e, SpiderHook.ErrorLevel.SEVERE );
+			}
+		finally
+			{
+			if ( http )
+				m_spider.getConnectionStats().response( http2 );
+			}
+		}
+
+	/**
+	* Open a connection to the url, with the spider's timeouts and user
+	* agent, for a request of the specified method.
+	*/
+	private URLConnection openConnection( URL url, String method )
+		throws IOException
+		{
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(m_spider.getOptions().timeout);
+		connection.setReadTimeout(m_spider.getOptions().timeout);
+		if (m_spider.getOptions().userAgent != null)
+			{
+			connection.setRequestProperty("User-Agent", m_spider.getOptions().userAgent);
+			}
+		if ( connection instanceof HttpsURLConnection ) // count its TLS connections
+			((HttpsURLConnection)connection).setSSLSocketFactory(
+			                      m_spider.getConnectionStats().getSocketFactory());
+		if ( !method.equals("GET"))
+			((HttpURLConnection)connection).setRequestMethod(method);
+		return connection;
+		}
+
+	/**
+	* @return true if the work is an image, script or stylesheet that is
+	* only to be verified, not downloaded: see SpiderOptions.verifyLeaves
+	*/
+	boolean verifyOnly()
+		{
+		return m_spider.getOptions().verifyLeaves
+		    && (m_work.getType() != SpiderHook.URLType.HYPERLINK);
+		}
+
+	/**
+	* The leaf has been found to exist: the response, empty for a HEAD,
+	* is discarded and the work is done.
+	* @param connURL - the URL that answered, after any redirect
+	* @param is      - the response, closed on return
+	* @return true if the response was read to the end
+	*/
+	boolean verified( URL connURL, InputStream is )
+		{
+		boolean drained = drainAndClose(is);
+		try { m_work.setStatus(WorkRecord.SUCCESS); }
+		catch (WorkException e)
+			{
+			urlError( m_work.getURL(), e, SpiderHook.ErrorLevel.WARNING );
+			return drained;
+			}
+		addRedirect( connURL );
+		return drained;
+		}
+
+	/**
+	* Read what is left of a response, up to DRAIN_LIMIT bytes, and close
+	* it: the connection is only kept alive for reuse if the response has
+	* been read to the end.
+	* @return true if the end of the response was reached
+	*/
+	static boolean drainAndClose( InputStream is )
+		{
+		if ( is == null )
+			return false;
+		boolean drained = false;
+		try
+			{
+			byte[] buffer = new byte[4096];
+			int total = 0;
+			int count;
+			while (((count = is.read(buffer)) != -1 ) && ((total += count) <= DRAIN_LIMIT ))
+				; // discard
+			drained = (count == -1);
+			}
+		catch (IOException e) {}
+		try { is.close(); }
+		catch (IOException e) {}
+		return drained;
+		}
+
+	/**
+	* The page is unchanged since it was last fetched: it is done without
+	* being parsed, and its validators are kept for the next recrawl.
+	* @param is - the (empty) response, closed on return
+	* @return true if the response was read to the end
+	*/
+	boolean notModified( InputStream is )
+		{
+		boolean drained = drainAndClose(is);
+		try { m_work.setStatus(WorkRecord.SUCCESS); }
+		catch (WorkException e) { urlError( m_work.getURL(), e, SpiderHook.ErrorLevel.WARNING ); }
+		return drained;
+		}
+
+	/**
+	* Process the fetched contents of the work's URL: HTML is parsed, other
+	* content goes to the hook, then the work is marked done. This is the
+	* second half of run(), and is called directly by the AsyncFetcher.
+	* @param connURL  - the URL the contents came from, after any redirect
+	* @param contType - the content type, or null if unknown
+	* @param is       - the contents, drained and closed on return
+	* @return true if the contents were read to the end
+	*/
+	boolean process( URL connURL, String contType, InputStream is )
+		{
+		URL workURL = m_work.getURL();
+		URLKey connKey = URLKey.of(connURL);
+		boolean drained;
+
+		try
+			{
+			if (!m_work.equals(connKey)) // save the URL(for redirect's)
 				log( "*************** REDIRECT ****************\n  %s\n  %s", workURL, connURL );
-			is = connection.getInputStream();
-			String contType = connection.getContentType();
 			if (( contType != null )
 			&&    contType.toLowerCase().startsWith("text/html"))
 				{
@@ -108,41 +334,50 @@ public class SpiderWorker
 //				m_spider.getHook().urlProcess(workURL, parser);
 				m_spider.getHook().urlProcess(connURL, parser);
 				}
-			else // non-HTML page
+			else if (!m_spider.getOptions().verifyLeaves) // non-HTML page
 				{
 				m_spider.getHook().urlProcess(workURL, is);
 				}
+			// else only checking links: drainAndClose abandons the content
 			m_work.setStatus(WorkRecord.SUCCESS);
 			}
 		catch (IOException e)
 			{
 			urlError( workURL, e, SpiderHook.ErrorLevel.INFO );
-			return;
+			return drainAndClose(is);
 			}
 		catch (Throwable e)
 			{
 			urlError( workURL, e, SpiderHook.ErrorLevel.SEVERE );
 			// e.printStackTrace();
 			// System.exit(1);
-			return;
-			}
-		finally
-			{
-			try { if (is != null) is.close(); }
-			catch (IOException e) {}
+			return drainAndClose(is);
 			}
+		drained = drainAndClose(is);
+		addRedirect( connURL );
+		return drained;
+		}
 
+	/**
+	* Add the URL that a redirect led to, as already processed.
+	*/
+	private void addRedirect( URL connURL )
+		{
+		URLKey connKey = URLKey.of(connURL);
 		try
 			{
-			if (!workURL.equals(connURL)) // save the URL(for redirect's)
-				m_spider.getWorkload().add(connURL, m_work, WorkRecord.SUCCESS);
+			if (!m_work.equals(connKey)) // save the URL(for redirect's)
+				m_spider.getWorkload().add(connKey, m_work, WorkRecord.SUCCESS, m_work.getType());
 			}
 		catch (WorkException e) { urlError( connURL, e, SpiderHook.ErrorLevel.INFO ); }
 		}
 
-	private void urlError(URL url, Throwable e, SpiderHook.ErrorLevel severity )
+	void urlError(URL url, Throwable e, SpiderHook.ErrorLevel severity )
 		{
+		m_work.setValidators( null, null ); // fetch in full next time
 		m_spider.getHook().urlError( url, e.toString(), severity );
+		if ( m_spider.getWorkload() instanceof ErrorLog )
+			((ErrorLog)m_spider.getWorkload()).logError( m_work, url, e.toString(), severity );
 		try { m_work.setStatus(WorkRecord.ERROR); }
 		catch (WorkException e1)
 			{
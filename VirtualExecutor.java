@@ -0,0 +1,94 @@
+package com.shanebow.spider;
+/********************************************************************
+* Copyright (c) 2010 Richard T. Salamone, Jr.  All rights reserved.
+*
+* VirtualExecutor: Runs each SpiderWorker on a thread of its own, a
+* virtual thread where the Java runtime has them, so that the blocking
+* worker code can have thousands of fetches in flight. Concurrency is
+* bounded by a semaphore of virtualMaxConcurrent permits rather than by
+* a pool of platform threads.
+*
+* Virtual threads are looked up by reflection so that the spider still
+* builds and runs on older runtimes; there, each worker gets a platform
+* thread instead, under the same bound.
+*
+* @author Rick Salamone
+* @version 1.0
+*******************************************************/
+import com.shanebow.util.SBLog;
+import java.util.concurrent.*;
+
+final class VirtualExecutor
+	{
+	public static final String MODULE="VirtualExecutor";
+
+	private final Spider m_spider;
+	private final ExecutorService m_executor;
+	private final Semaphore m_permits;
+	private final int m_maxConcurrent;
+
+	VirtualExecutor( Spider spider )
+		{
+		m_spider = spider;
+		m_maxConcurrent = Math.max( 1, spider.getOptions().virtualMaxConcurrent );
+		m_permits = new Semaphore( m_maxConcurrent );
+		ExecutorService executor;
+		try
+			{
+			executor = (ExecutorService)Executors.class
+			              .getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+			SBLog.write( MODULE, "running workers on virtual threads" );
+			}
+		catch (Exception e) // before Java 21
+			{
+			executor = Executors.newCachedThreadPool();
+			SBLog.write( MODULE, "virtual threads unavailable, running workers on platform threads" );
+			}
+		m_executor = executor;
+		}
+
+	/**
+	* @return true if another worker may start without exceeding
+	* virtualMaxConcurrent
+	*/
+	boolean hasCapacity() { return m_permits.availablePermits() > 0; }
+
+	/**
+	* @return the number of workers running
+	*/
+	int getActiveCount() { return m_maxConcurrent - m_permits.availablePermits(); }
+
+	/**
+	* Run the worker on its own thread, first waiting for a permit if
+	* virtualMaxConcurrent workers are already running.
+	*/
+	void execute( final Runnable worker )
+		{
+		m_permits.acquireUninterruptibly();
+		try
+			{
+			m_executor.execute( new Runnable()
+				{
+				public void run()
+					{
+					try { worker.run(); }
+					finally
+						{
+						m_permits.release();
+						m_spider.checkForWork();
+						}
+					}
+				});
+			}
+		catch (RejectedExecutionException e)
+			{
+			m_permits.release();
+			throw e;
+			}
+		}
+
+	/**
+	* Stop accepting workers; those running are left to finish.
+	*/
+	void shutdown() { m_executor.shutdown(); }
+	}
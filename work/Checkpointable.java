@@ -0,0 +1,19 @@
+package com.shanebow.spider.work;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* Checkpointable: A Workload whose state can be saved to disk on demand,
+* so that an interrupted crawl can be resumed.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+public interface Checkpointable
+	extends Workload
+	{
+	/**
+	* Save the state of the workload to its checkpoint file.
+	* @throws WorkException if the checkpoint could not be written
+	*/
+	public void checkpoint() throws WorkException;
+	}
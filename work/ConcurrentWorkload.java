@@ -0,0 +1,16 @@
+package com.shanebow.spider.work;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* ConcurrentWorkload: Marks a Workload whose add() may be called by many
+* threads at once. The Spider serializes calls to add() on any other
+* workload, but lets the parser threads add to a ConcurrentWorkload
+* without holding the Spider's monitor.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+public interface ConcurrentWorkload
+	extends Workload
+	{
+	}
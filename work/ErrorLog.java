@@ -0,0 +1,27 @@
+package com.shanebow.spider.work;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* ErrorLog: A Workload that keeps a persistent record of the errors met
+* while processing its work, e.g. for a broken link audit.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.SpiderHook;
+import java.net.URL;
+
+public interface ErrorLog
+	extends Workload
+	{
+	/**
+	* Record an error. This must not block the caller on I/O: it is
+	* called from the worker threads.
+	* @param work    The work being processed
+	* @param url     The URL that generated the error
+	* @param message A description of the error
+	* @param level   The severity of the error
+	*/
+	public void logError( WorkRecord work, URL url, String message,
+	                      SpiderHook.ErrorLevel level );
+	}
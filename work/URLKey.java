@@ -0,0 +1,166 @@
+package com.shanebow.spider.work;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* URLKey: An immutable identity for a URL in the workload. The key holds
+* the parsed components of the URL in canonical form (protocol and host
+* lower cased, default port dropped, an empty path becomes "/" and the
+* fragment is ignored) along with a precomputed 64-bit hash.
+*
+* Unlike java.net.URL, whose equals() and hashCode() resolve the host
+* name, comparing two keys never touches the network: two virtual hosts
+* that share an IP address remain distinct urls.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class URLKey
+	{
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME  = 0x100000001b3L;
+
+	private final String m_protocol; // lower case, e.g. "http"
+	private final String m_host;     // lower case, "" if none
+	private final int    m_port;     // -1 if the protocol's default
+	private final String m_file;     // path and query
+	private final long   m_hash;     // 64-bit FNV-1a of toString()
+
+	private URLKey( String protocol, String host, int port, String file )
+		{
+		m_protocol = protocol;
+		m_host = host;
+		m_port = port;
+		m_file = file;
+		m_hash = fnv64(toString());
+		}
+
+	/**
+	* Create the key for the specified URL.
+	* @param  url The URL to key.
+	* @return the URLKey
+	*/
+	public static URLKey of( URL url )
+		{
+		String host = url.getHost();
+		int port = url.getPort();
+		if ( port == url.getDefaultPort())
+			port = -1;
+		String file = url.getFile();
+		if (( file == null ) || ( file.length() == 0 ))
+			file = "/";
+		return new URLKey( url.getProtocol().toLowerCase(),
+		                   (host == null) ? "" : host.toLowerCase(), port, file );
+		}
+
+	/**
+	* Create the key for the specified url string.
+	* @param  url The url as a string.
+	* @return the URLKey
+	* @throws WorkException if the string is not a valid URL
+	*/
+	public static URLKey parse( String url )
+		throws WorkException
+		{
+		try { return of( new URL(url.trim())); }
+		catch (MalformedURLException e) { throw new WorkException(e); }
+		}
+
+	public String getProtocol() { return m_protocol; }
+	public String getHost()     { return m_host; }
+	public int    getPort()     { return m_port; }
+	public String getFile()     { return m_file; }
+
+	/**
+	* @return the host name, and the port if it is not the protocol's
+	* default: the server that a request for this url goes to.
+	*/
+	public String getAuthority()
+		{
+		return (m_port == -1) ? m_host : m_host + ":" + m_port;
+		}
+
+	/**
+	* @return the precomputed 64-bit hash of this key.
+	*/
+	public long hash64() { return m_hash; }
+
+	/**
+	* A URL of each protocol built so far. Building a URL in the context
+	* of one of the same protocol reuses its stream handler, rather than
+	* looking the handler up in the JDK's synchronized table of them, on
+	* which parser threads adding urls would otherwise contend.
+	*/
+	private static final ConcurrentHashMap<String,URL> _contexts
+	                                = new ConcurrentHashMap<String,URL>();
+
+	/**
+	* Build a java.net.URL from the components of this key. This does
+	* not do any name resolution.
+	* @return the URL
+	*/
+	public URL toURL()
+		{
+		try
+			{
+			URL context = _contexts.get( m_protocol );
+			if ( context == null )
+				{
+				URL url = new URL( m_protocol, m_host, m_port, m_file );
+				_contexts.putIfAbsent( m_protocol, url );
+				return url;
+				}
+			return new URL( context, toString());
+			}
+		catch (MalformedURLException e) // cannot happen, we came from a URL
+			{ throw new IllegalStateException(e); }
+		}
+
+	@Override
+	public int hashCode() { return (int)(m_hash ^ (m_hash >>> 32)); }
+
+	@Override
+	public boolean equals( Object other )
+		{
+		if ( other == this )
+			return true;
+		if ( !(other instanceof URLKey))
+			return false;
+		URLKey that = (URLKey)other;
+		return (m_hash == that.m_hash)
+		    && (m_port == that.m_port)
+		    && m_file.equals(that.m_file)
+		    && m_host.equals(that.m_host)
+		    && m_protocol.equals(that.m_protocol);
+		}
+
+	@Override
+	public String toString()
+		{
+		StringBuilder it = new StringBuilder( m_protocol.length()
+		                       + m_host.length() + m_file.length() + 10 );
+		it.append(m_protocol).append("://").append(m_host);
+		if ( m_port != -1 )
+			it.append(':').append(m_port);
+		return it.append(m_file).toString();
+		}
+
+	/**
+	* @return the 64-bit FNV-1a hash of the specified string.
+	*/
+	public static long fnv64( CharSequence s )
+		{
+		long hash = FNV_OFFSET;
+		for ( int i = 0; i < s.length(); i++ )
+			{
+			char c = s.charAt(i);
+			hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+			if ( c > 0xFF )
+				hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+			}
+		return hash;
+		}
+	}
@@ -0,0 +1,21 @@
+package com.shanebow.spider.work;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* URLScorer: Rates the value of fetching a url, for use by workloads
+* that fetch the most valuable pages first. A SpiderHook that implements
+* this interface can supply its own scores, e.g. from what it learned in
+* urlFound().
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+public interface URLScorer
+	{
+	/**
+	* @param url    The url to be scored.
+	* @param source The page the url was found on, null for a root url.
+	* @return the score of the url: higher scores are fetched sooner.
+	*/
+	public double score( URLKey url, WorkRecord source );
+	}
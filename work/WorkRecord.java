@@ -5,12 +5,14 @@ package com.shanebow.spider.work;
 * WorkRecord: This class defines a unit of work to be processed by the Spider.
 * Each record consists of a URL and its associated status, along with other
 * useful tracking information such as the time last modified, a pointer to its
-* source, and its depth as measured from the root WorkRecord.
+* source, its depth as measured from the root WorkRecord, and the type of
+* link by which it was found.
 * Developed for use with The Heaton Research Spider.
 * 
 * @author Rick Salamone
 * @version 1.0
 */
+import com.shanebow.spider.SpiderHook;
 import com.shanebow.spider.work.WorkException;
 import com.shanebow.util.SBDate;
 import java.net.*;
@@ -28,12 +30,15 @@ public class WorkRecord
 
 	private long   m_id = NULL_ID; //
 	private long   m_idHost = NULL_ID; //
-	private URL    m_url;       // The source of this URL
+	private URLKey m_key;       // The identity of this URL
 	private char   m_status;    // The current status of this URL
 	private int    m_depth = 0; // The depth of this URL from spider starting point
 	private long   m_idSource = NULL_ID;
 	private long   m_lmdt = 0;  // last modified time/date
 	private long   m_idParser = NULL_ID;  // parser used to search this page
+	private String m_lastModified; // Last-Modified of the page as fetched, or null
+	private String m_etag;         // ETag of the page as fetched, or null
+	private SpiderHook.URLType m_type = SpiderHook.URLType.HYPERLINK; // how it was found
 
 	public WorkRecord()
 		throws WorkException
@@ -41,16 +46,16 @@ public class WorkRecord
 		throw new WorkException("Cannot use no arg constructor");
 		}
 
-	public WorkRecord( URL url, WorkRecord source )
+	public WorkRecord( URLKey url, WorkRecord source )
 		throws WorkException
 		{
 		this( url, source, WAITING );
 		}
 
-	public WorkRecord( URL url, WorkRecord source, char status )
+	public WorkRecord( URLKey url, WorkRecord source, char status )
 		throws WorkException
 		{
-		m_url = url;
+		m_key = url;
 		m_status = status;
 		if ( source != null )
 			{
@@ -60,13 +65,13 @@ public class WorkRecord
 		m_lmdt = timeNow();
 		}
 
-	public WorkRecord( long id, long idHost, URL url, char status,
+	public WorkRecord( long id, long idHost, URLKey url, char status,
 	           int depth, long idSource, long idParser, long lmdt )
 	//	throws WorkException
 		{
 		m_id = id;
 		m_idHost = idHost;
-		m_url = url;
+		m_key = url;
 		m_status = status;
 		m_depth = depth;
 		m_idSource = idSource;
@@ -74,22 +79,43 @@ public class WorkRecord
 		m_lmdt = lmdt;
 		}
 
-	public boolean equals( URL url ) { return m_url.equals(url); }
-	public String  toString() { return m_url.toString() + "(" + m_id + ")"; }
+	public boolean equals( URLKey url ) { return getKey().equals(url); }
+	public boolean equals( URL url ) { return getKey().equals(URLKey.of(url)); }
+	public String  toString() { return getKey().toString() + "(" + getID() + ")"; }
 	public String  formatted()
 		{
 		return String.format( "%4d %4d %d %s %s",
-			m_id, m_idSource, m_depth, "" + m_status, m_url ); // m_lmdt
+			getID(), getSourceID(), getDepth(), "" + getStatus(), getKey()); // m_lmdt
 		}
 
 	public long   getID()       { return m_id; }
 	public int    getDepth()    { return m_depth; }
 	public long   getSourceID() { return m_idSource; }
 	public char   getStatus()   { return m_status; }
-	public URL    getURL()      { return m_url; }
+	public URLKey getKey()      { return m_key; }
+	public URL    getURL()      { return getKey().toURL(); }
 	public long   getLMDT()     { return m_lmdt; }
+	public String getLastModified() { return m_lastModified; }
+	public String getETag()     { return m_etag; }
+	public SpiderHook.URLType getType() { return m_type; }
+
+	/**
+	* Set the validators of the page as fetched, which a recrawl sends
+	* in a conditional GET. They are saved with the next status change.
+	* @param lastModified The Last-Modified header, or null
+	* @param etag         The ETag header, or null
+	*/
+	public void setValidators( String lastModified, String etag )
+		{
+		m_lastModified = lastModified;
+		m_etag = etag;
+		}
 
 	public void setID(long id) { m_id = id; }
+	public void setType(SpiderHook.URLType type)
+		{
+		m_type = (type == null) ? SpiderHook.URLType.HYPERLINK : type;
+		}
 	public void setStatus(char status) throws WorkException
 		{
 		m_status = status;
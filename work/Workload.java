@@ -11,8 +11,8 @@ package com.shanebow.spider.work;
 * @author Rick Salamone
 * @version 1.0
 */
-import java.net.URL;
 import com.shanebow.spider.Spider;
+import com.shanebow.spider.SpiderHook;
 
 public interface Workload
 	{
@@ -46,12 +46,30 @@ public interface Workload
 
 	/**
 	* Add the specified URL to the workload.
-	* @param  url    The URL to be added.
+	* @param  url    The key of the URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add(URLKey url, WorkRecord source, char status ) throws WorkException;
+
+	/**
+	* Add the specified URL, found by a link of the specified type, to the
+	* workload. A workload that keeps the type with the record overrides
+	* this; otherwise the type is dropped and the URL is fetched as a page.
+	* @param  url    The key of the URL to be added.
 	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @param  type   How the URL was found.
 	* @return true   if the URL was added, false otherwise.
 	* @throws WorkException
 	*/
-	public boolean add(URL url, WorkRecord source, char status ) throws WorkException;
+	public default boolean add(URLKey url, WorkRecord source, char status,
+	                           SpiderHook.URLType type ) throws WorkException
+		{
+		return add( url, source, status );
+		}
 
 	/**
 	* Determine if the workload contains the specified URL.
@@ -59,7 +77,7 @@ public interface Workload
 	* @return true if the workload already contains the URL
 	* @throws WorkException
 	*/
-//	public boolean contains(URL url) throws WorkException;
+//	public boolean contains(URLKey url) throws WorkException;
 
 	/**
 	* Get a new URL to work on. Wait if there are no URL's currently
@@ -0,0 +1,140 @@
+package com.shanebow.spider.work.bloom;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* BloomFilter: A probabilistic set of URLKeys held in a memory mapped
+* file. mightContain() never returns a false negative, and returns a
+* false positive at about the rate the filter was sized for. The bits
+* are derived from the key's 64-bit hash by double hashing, so adding
+* a url costs about 1.2 bytes at a 1% false positive rate.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.work.URLKey;
+import java.io.File;
+import java.io.IOException;
+
+public final class BloomFilter
+	{
+	private static final long MAGIC = 0x53424C4F4F4D3031L; // "SBLOOM01"
+	private static final int  HEADER = 64;
+
+	private final MappedFile m_bits;
+	private final long m_numBits;
+	private final int  m_numHashes;
+
+	/**
+	* Create a filter in the specified file, sized to hold expected urls
+	* at the false positive rate fpp. An existing filter file is reused
+	* with whatever dimensions it was created with.
+	* @throws IOException
+	*/
+	public BloomFilter( File file, long expected, double fpp )
+		throws IOException
+		{
+		long numBits = optimalBits( expected, fpp );
+		int numHashes = optimalHashes( expected, numBits );
+		MappedFile bits = new MappedFile( file, HEADER + (numBits + 7) / 8 );
+		if ( bits.getLong(0) == MAGIC )
+			{
+			numBits = bits.getLong(8);
+			numHashes = (int)bits.getLong(16);
+			if ( bits.size() < HEADER + (numBits + 7) / 8 )
+				{
+				bits.close();
+				bits = new MappedFile( file, HEADER + (numBits + 7) / 8 );
+				}
+			}
+		else
+			{
+			bits.putLong( 8, numBits );
+			bits.putLong( 16, numHashes );
+			bits.putLong( 0, MAGIC );
+			}
+		m_bits = bits;
+		m_numBits = numBits;
+		m_numHashes = numHashes;
+		}
+
+	static long optimalBits( long n, double p )
+		{
+		if ( n < 1 ) n = 1;
+		if ( p <= 0 ) p = Double.MIN_VALUE;
+		return Math.max( 64, (long)(-n * Math.log(p) / (Math.log(2) * Math.log(2))));
+		}
+
+	static int optimalHashes( long n, long m )
+		{
+		return Math.max( 1, (int)Math.round((double)m / Math.max(1, n) * Math.log(2)));
+		}
+
+	/**
+	* @return false if the key was definitely never put in this filter
+	*/
+	public synchronized boolean mightContain( URLKey key )
+		{
+		long h1 = key.hash64();
+		long h2 = mix(h1);
+		for ( int i = 0; i < m_numHashes; i++ )
+			{
+			long bit = ((h1 + i * h2) & Long.MAX_VALUE) % m_numBits;
+			if (( m_bits.getByte(HEADER + (bit >>> 3)) & (1 << (bit & 7))) == 0 )
+				return false;
+			}
+		return true;
+		}
+
+	/**
+	* Add the key to this filter.
+	* @return true if any bit changed, i.e. the key was definitely new
+	*/
+	public synchronized boolean put( URLKey key )
+		{
+		boolean changed = false;
+		long h1 = key.hash64();
+		long h2 = mix(h1);
+		for ( int i = 0; i < m_numHashes; i++ )
+			{
+			long bit = ((h1 + i * h2) & Long.MAX_VALUE) % m_numBits;
+			long offset = HEADER + (bit >>> 3);
+			byte b = m_bits.getByte(offset);
+			byte set = (byte)(b | (1 << (bit & 7)));
+			if ( set != b )
+				{
+				m_bits.putByte( offset, set );
+				changed = true;
+				}
+			}
+		return changed;
+		}
+
+	/**
+	* A second, independent hash for double hashing (the murmur3 finalizer).
+	*/
+	private static long mix( long h )
+		{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h | 1; // odd, so that the probes cycle through all bits
+		}
+
+	/**
+	* Remove every key, in place: the file stays mapped.
+	*/
+	public synchronized void clear()
+		{
+		m_bits.clear();
+		m_bits.putLong( 8, m_numBits );
+		m_bits.putLong( 16, m_numHashes );
+		m_bits.putLong( 0, MAGIC );
+		}
+
+	public long getNumBits()   { return m_numBits; }
+	public int  getNumHashes() { return m_numHashes; }
+
+	public void close() { m_bits.close(); }
+	}
@@ -0,0 +1,180 @@
+package com.shanebow.spider.work.bloom;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* BloomWorkload: A workload for very large crawls. Unlike RAMWorkload,
+* which keeps a WorkRecord for every url ever seen, this workload keeps
+* no records on the heap. The urls already seen are kept in a SeenSet:
+* a memory mapped BloomFilter backed by an exact on disk URLStore, so
+* the heap does not grow with the crawl.
+*
+* Each url's record is stored with it in the URLStore, in the order the
+* urls were added, so the waiting urls are read back from there: the
+* workload only holds a cursor into the store and a count of the urls
+* waiting after it.
+*
+* The files are kept in SpiderOptions.workDirectory and are discarded
+* when the workload is initialized or cleared.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.Spider;
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.SpiderOptions;
+import com.shanebow.spider.work.*;
+import com.shanebow.util.SBLog;
+import java.io.File;
+import java.io.IOException;
+
+public class BloomWorkload
+	implements Workload
+	{
+	public static final String MODULE="BloomWork";
+
+	private void log( String format, Object... args )
+		{
+		SBLog.write( MODULE, String.format(format, args ));
+		}
+
+	private Spider m_spider;
+	private SeenSet m_seen = null;
+	private long m_next;    // offset in the store of the next record to read
+	private long m_waiting; // waiting records from m_next on
+
+	/**
+	* Setup this workload for use by the specified spider.
+	* @param spider The spider using this workload.
+	* @throws WorkException if there is an initialization error
+	*/
+	public void init(Spider spider)
+		throws WorkException
+		{
+		m_spider = spider;
+		if ( m_seen != null )
+			throw new WorkException( "Trying to reinitialize existing workload" );
+		WorkRecord._maxLengthURL = -1; // allow arbitrary length
+		SpiderOptions opts = m_spider.getOptions();
+		m_seen = new SeenSet( new File(opts.workDirectory),
+		                      opts.seenExpectedURLs, opts.seenFalsePositiveRate, true );
+		m_next = m_seen.getStore().first();
+		m_waiting = 0;
+		}
+
+	/**
+	* Clear the workload.
+	* @throws WorkException if error precludes clearing the workload.
+	*/
+	public synchronized void clear()
+		throws WorkException
+		{
+		m_seen.clear();
+		m_next = m_seen.getStore().first();
+		m_waiting = 0;
+		}
+
+	/**
+	* @return true if there is no more work to do now.
+	* @throws WorkException if cannot determine whether empty workload
+	*/
+	public synchronized boolean isEmpty()
+		throws WorkException
+		{
+		return m_waiting == 0;
+		}
+
+	/**
+	* Add the specified URL to the workload.
+	* @param  url    The URL to be added.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add( String url )
+		throws WorkException
+		{
+		return add( URLKey.of(WorkRecord.toURL(url)), null, WorkRecord.WAITING );
+		}
+
+	/**
+	* Add the specified URL, found by a hyperlink, to the workload.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add(URLKey url, WorkRecord source, char status )
+		throws WorkException
+		{
+		return add( url, source, status, SpiderHook.URLType.HYPERLINK );
+		}
+
+	/**
+	* Add the specified URL to the workload. The record is written to the
+	* store, only waiting records are read back.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @param  type   How the URL was found, kept with the record.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public synchronized boolean add(URLKey url, WorkRecord source, char status,
+	                                SpiderHook.URLType type )
+		throws WorkException
+		{
+		int depth = (source == null) ? 0 : source.getDepth() + 1;
+		long idSource = (source == null) ? WorkRecord.NULL_ID : source.getID();
+		if ( !m_seen.add( url, status, depth, idSource, WorkRecord.timeNow(), type ))
+			return false;
+		if ( status == WorkRecord.WAITING )
+			++m_waiting;
+		return true;
+		}
+
+	/**
+	* Determine if the workload contains the specified URL.
+	* @param url
+	* @return true if the url has ever been added
+	* @throws WorkException
+	*/
+	public boolean contains(URLKey url)
+		throws WorkException
+		{
+		return m_seen.contains(url);
+		}
+
+	/**
+	* Get a new URL to work on: the next waiting record in the store. The
+	* record is read for the worker, it lives only as long as the worker
+	* processing it.
+	* @return The next URL to parse, or null if none are waiting
+	* @throws WorkException if the next URL could not be obtained.
+	*/
+	public synchronized WorkRecord getWork() throws WorkException
+		{
+		URLStore store = m_seen.getStore();
+		try
+			{
+			while ( m_waiting > 0 && m_next < store.end())
+				{
+				long at = m_next;
+				m_next = store.next( at );
+				WorkRecord wr = store.read( at );
+				if ( wr.getStatus() != WorkRecord.WAITING )
+					continue; // e.g. a redirect target, added as processed
+				--m_waiting;
+				wr.setStatus( WorkRecord.ACTIVE );
+				return wr;
+				}
+			}
+		catch (IOException e) { throw new WorkException(e); }
+		return null;
+		}
+
+	public synchronized void shutdown()
+		{
+		log( "shutdown: %d waiting, seen %s", m_waiting, m_seen.getStats());
+		m_seen.close();
+		}
+	}
@@ -0,0 +1,111 @@
+package com.shanebow.spider.work.bloom;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* MappedFile: A fixed size file that is memory mapped in pages so that
+* it may exceed the 2GB limit of a single MappedByteBuffer. The contents
+* live in the OS page cache rather than on the java heap.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public final class MappedFile
+	{
+	private static final int  PAGE_BITS = 30; // 1GB pages
+	private static final long PAGE_SIZE = 1L << PAGE_BITS;
+	private static final long PAGE_MASK = PAGE_SIZE - 1;
+
+	private final RandomAccessFile  m_file;
+	private final MappedByteBuffer[] m_pages;
+	private final long m_size;
+
+	/**
+	* Open, or create, the specified file mapping size bytes.
+	* @param file the file to map
+	* @param size the number of bytes, the file is extended if shorter
+	* @throws IOException
+	*/
+	public MappedFile( File file, long size )
+		throws IOException
+		{
+		m_size = size;
+		m_file = new RandomAccessFile( file, "rw" );
+		if ( m_file.length() < size )
+			m_file.setLength( size );
+		FileChannel channel = m_file.getChannel();
+		int nPages = (int)((size + PAGE_SIZE - 1) >>> PAGE_BITS);
+		m_pages = new MappedByteBuffer[nPages];
+		for ( int i = 0; i < nPages; i++ )
+			{
+			long start = (long)i << PAGE_BITS;
+			m_pages[i] = channel.map( FileChannel.MapMode.READ_WRITE, start,
+			                          Math.min( PAGE_SIZE, size - start ));
+			}
+		}
+
+	public long size() { return m_size; }
+
+	public byte getByte( long offset )
+		{
+		return m_pages[(int)(offset >>> PAGE_BITS)].get((int)(offset & PAGE_MASK));
+		}
+
+	public void putByte( long offset, byte value )
+		{
+		m_pages[(int)(offset >>> PAGE_BITS)].put((int)(offset & PAGE_MASK), value );
+		}
+
+	/**
+	* Longs must be 8 byte aligned so that they never straddle two pages.
+	*/
+	public long getLong( long offset )
+		{
+		return m_pages[(int)(offset >>> PAGE_BITS)].getLong((int)(offset & PAGE_MASK));
+		}
+
+	public void putLong( long offset, long value )
+		{
+		m_pages[(int)(offset >>> PAGE_BITS)].putLong((int)(offset & PAGE_MASK), value );
+		}
+
+	/**
+	* Zero the whole file, in place.
+	*/
+	public void clear()
+		{
+		ByteBuffer zeros = ByteBuffer.allocate( 64 * 1024 );
+		for ( MappedByteBuffer page : m_pages )
+			{
+			ByteBuffer out = page.duplicate();
+			out.clear();
+			while ( out.hasRemaining())
+				{
+				zeros.clear().limit( Math.min( zeros.capacity(), out.remaining()));
+				out.put( zeros );
+				}
+			}
+		}
+
+	/**
+	* Write any changes to the storage device.
+	*/
+	public void force()
+		{
+		for ( MappedByteBuffer page : m_pages )
+			page.force();
+		}
+
+	public void close()
+		{
+		force();
+		try { m_file.close(); }
+		catch (IOException e) {}
+		}
+	}
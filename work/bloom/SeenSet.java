@@ -0,0 +1,154 @@
+package com.shanebow.spider.work.bloom;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* SeenSet: An exact set of every url a workload has ever accepted, sized
+* for tens of millions of urls. New urls are screened by a BloomFilter;
+* only when the filter reports a possible hit is the on disk URLStore
+* consulted to tell a duplicate from a false positive.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.work.URLKey;
+import com.shanebow.spider.work.WorkException;
+import java.io.File;
+import java.io.IOException;
+
+public final class SeenSet
+	{
+	public static final String FILE_BLOOM = "seen.bloom";
+	public static final String FILE_INDEX = "seen.idx";
+	public static final String FILE_DATA  = "seen.dat";
+
+	private final BloomFilter m_filter;
+	private final URLStore    m_store;
+	private long m_diskChecks = 0;     // filter said maybe
+	private long m_falsePositives = 0; // ... but the store said no
+
+	/**
+	* Open the set in the specified directory.
+	* @param dir      directory to hold the files, created if necessary
+	* @param expected the number of urls the set is sized for
+	* @param fpp      the desired false positive rate of the filter
+	* @param fresh    true to discard any existing contents
+	* @throws WorkException if the files cannot be opened
+	*/
+	public SeenSet( File dir, long expected, double fpp, boolean fresh )
+		throws WorkException
+		{
+		try
+			{
+			if ( !dir.isDirectory() && !dir.mkdirs())
+				throw new IOException( "Cannot create " + dir );
+			File bloom = new File( dir, FILE_BLOOM );
+			File index = new File( dir, FILE_INDEX );
+			File data = new File( dir, FILE_DATA );
+			if ( fresh )
+				{
+				bloom.delete();
+				index.delete();
+				data.delete();
+				}
+			m_filter = new BloomFilter( bloom, expected, fpp );
+			m_store = new URLStore( index, data, expected );
+			}
+		catch (IOException e) { throw new WorkException(e); }
+		}
+
+	/**
+	* Add the key to the set.
+	* @return true if the key was not already in the set
+	* @throws WorkException on disk error
+	*/
+	public synchronized boolean add( URLKey key )
+		throws WorkException
+		{
+		try
+			{
+			if ( isSeen(key))
+				return false;
+			m_filter.put(key);
+			m_store.put(key);
+			return true;
+			}
+		catch (IOException e) { throw new WorkException(e); }
+		}
+
+	/**
+	* Add the key to the set, storing its work record with it: see
+	* getStore() to read the records back.
+	* @return true if the key was not already in the set
+	* @throws WorkException on disk error
+	*/
+	public synchronized boolean add( URLKey key, char status, int depth, long idSource,
+	                                 long lmdt, SpiderHook.URLType type )
+		throws WorkException
+		{
+		try
+			{
+			if ( isSeen(key))
+				return false;
+			m_filter.put(key);
+			m_store.put( key, status, depth, idSource, lmdt, type );
+			return true;
+			}
+		catch (IOException e) { throw new WorkException(e); }
+		}
+
+	private boolean isSeen( URLKey key )
+		throws IOException
+		{
+		if ( !m_filter.mightContain(key))
+			return false;
+		++m_diskChecks;
+		if ( m_store.contains(key))
+			return true;
+		++m_falsePositives;
+		return false;
+		}
+
+	/**
+	* @return the store of the keys, in the order they were added
+	*/
+	URLStore getStore() { return m_store; }
+
+	/**
+	* Empty the set, in place: its files stay open and mapped.
+	* @throws WorkException on disk error
+	*/
+	public synchronized void clear()
+		throws WorkException
+		{
+		m_filter.clear();
+		try { m_store.clear(); }
+		catch (IOException e) { throw new WorkException(e); }
+		m_diskChecks = 0;
+		m_falsePositives = 0;
+		}
+
+	/**
+	* @return true if the key is in the set
+	* @throws WorkException on disk error
+	*/
+	public synchronized boolean contains( URLKey key )
+		throws WorkException
+		{
+		try { return m_filter.mightContain(key) && m_store.contains(key); }
+		catch (IOException e) { throw new WorkException(e); }
+		}
+
+	public synchronized String getStats()
+		{
+		return String.format( "%d urls, %d bits, %d hashes, %d disk checks, %d false positives",
+		         m_store.size(), m_filter.getNumBits(), m_filter.getNumHashes(),
+		         m_diskChecks, m_falsePositives );
+		}
+
+	public void close()
+		{
+		m_filter.close();
+		m_store.close();
+		}
+	}
@@ -0,0 +1,249 @@
+package com.shanebow.spider.work.bloom;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* URLStore: An exact, disk resident set of URLKeys. The url strings are
+* appended to a data file and chained from a memory mapped table of
+* buckets indexed by the key's 64-bit hash. Each entry carries its hash
+* so a lookup only reads the url text of entries whose hash matches.
+*
+* An entry also holds the url's work record, so a workload can keep its
+* waiting urls here rather than on the heap: the entries are in the
+* order they were added, and read(at) and next(at) walk them from first().
+*
+* Index:  magic(long) buckets(long) size(long), padded to 64 bytes,
+*         then the bucket heads
+* Entry:  next(long) hash(long) length(int) depth(int) idSource(long)
+*         lmdt(long) status(byte) type(byte) url bytes
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.work.URLKey;
+import com.shanebow.spider.work.WorkException;
+import com.shanebow.spider.work.WorkRecord;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+public final class URLStore
+	{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long MAGIC = 0x534255524C533031L; // "SBURLS01"
+	private static final int  HEADER = 64;
+	private static final int  H_BUCKETS = 8;
+	private static final int  H_SIZE = 16;
+
+	private static final int E_NEXT   = 0;
+	private static final int E_HASH   = 8;
+	private static final int E_LENGTH = 16;
+	private static final int E_DEPTH  = 20;
+	private static final int E_SOURCE = 24;
+	private static final int E_LMDT   = 32;
+	private static final int E_STATUS = 40;
+	private static final int E_TYPE   = 41;
+	private static final int ENTRY_HEADER = 42;
+	private static final int DATA_START = 8; // offset 0 means end of chain
+
+	private final MappedFile       m_buckets;
+	private final long             m_numBuckets;
+	private final RandomAccessFile m_file;
+	private final FileChannel      m_data;
+	private final ByteBuffer       m_header = ByteBuffer.allocate(ENTRY_HEADER);
+	private long m_end;  // append position in the data file
+	private long m_size; // number of urls stored, kept in the index
+
+	/**
+	* Open or create the store in the specified files.
+	* @param index    the file of bucket heads
+	* @param data     the file of url entries
+	* @param expected the number of urls expected, used to size the index
+	* @throws IOException
+	*/
+	public URLStore( File index, File data, long expected )
+		throws IOException
+		{
+		long numBuckets = Long.highestOneBit(Math.max(1024, expected));
+		MappedFile buckets = new MappedFile( index, HEADER + 8 * numBuckets );
+		m_file = new RandomAccessFile( data, "rw" );
+		m_data = m_file.getChannel();
+		if ( buckets.getLong(0) == MAGIC )
+			{
+			numBuckets = buckets.getLong(H_BUCKETS);
+			if ( buckets.size() < HEADER + 8 * numBuckets )
+				{
+				buckets.close();
+				buckets = new MappedFile( index, HEADER + 8 * numBuckets );
+				}
+			m_size = buckets.getLong(H_SIZE);
+			m_end = Math.max( DATA_START, m_data.size());
+			}
+		else // new, or in an older format: start empty
+			{
+			if ( m_data.size() > DATA_START )
+				buckets.clear();
+			m_data.truncate( DATA_START );
+			buckets.putLong( H_BUCKETS, numBuckets );
+			buckets.putLong( H_SIZE, 0 );
+			buckets.putLong( 0, MAGIC );
+			m_size = 0;
+			m_end = DATA_START;
+			}
+		m_buckets = buckets;
+		m_numBuckets = numBuckets;
+		}
+
+	public synchronized long size() { return m_size; }
+
+	private long bucket( long hash )
+		{
+		return HEADER + 8 * ((hash & Long.MAX_VALUE) % m_numBuckets);
+		}
+
+	/**
+	* @return true if this store contains the specified key
+	* @throws IOException
+	*/
+	public synchronized boolean contains( URLKey key )
+		throws IOException
+		{
+		long hash = key.hash64();
+		byte[] url = null;
+		for ( long at = m_buckets.getLong(bucket(hash)); at != 0; )
+			{
+			m_header.clear();
+			readFully( m_header, at );
+			long next = m_header.getLong(E_NEXT);
+			if ( m_header.getLong(E_HASH) == hash )
+				{
+				if ( url == null )
+					url = key.toString().getBytes(UTF8);
+				int length = m_header.getInt(E_LENGTH);
+				if ( length == url.length )
+					{
+					ByteBuffer stored = ByteBuffer.allocate(length);
+					readFully( stored, at + ENTRY_HEADER );
+					if ( ByteBuffer.wrap(url).equals(stored.flip()))
+						return true;
+					}
+				}
+			at = next;
+			}
+		return false;
+		}
+
+	/**
+	* Add the key to the store, the caller has checked it is not present.
+	* The key is only remembered, with no work record.
+	* @throws IOException
+	*/
+	public void put( URLKey key )
+		throws IOException
+		{
+		put( key, (char)0, 0, WorkRecord.NULL_ID, 0, SpiderHook.URLType.HYPERLINK );
+		}
+
+	/**
+	* Add the key to the store with its work record, the caller has
+	* checked it is not present.
+	* @return the offset of the entry, which is also the record's id
+	* @throws IOException
+	*/
+	public synchronized long put( URLKey key, char status, int depth, long idSource,
+	                              long lmdt, SpiderHook.URLType type )
+		throws IOException
+		{
+		long hash = key.hash64();
+		long bucket = bucket(hash);
+		byte[] url = key.toString().getBytes(UTF8);
+		ByteBuffer entry = ByteBuffer.allocate( ENTRY_HEADER + url.length );
+		entry.putLong( m_buckets.getLong(bucket)).putLong(hash).putInt(url.length)
+		     .putInt(depth).putLong(idSource).putLong(lmdt)
+		     .put((byte)status).put((byte)type.ordinal()).put(url);
+		entry.flip();
+		long at = m_end;
+		while ( entry.hasRemaining())
+			m_end += m_data.write( entry, m_end );
+		m_buckets.putLong( bucket, at );
+		m_buckets.putLong( H_SIZE, ++m_size );
+		return at;
+		}
+
+	/**
+	* @return the offset of the first entry
+	*/
+	public long first() { return DATA_START; }
+
+	/**
+	* @return the offset just past the last entry
+	*/
+	public synchronized long end() { return m_end; }
+
+	/**
+	* @return the offset of the entry following the one at offset at
+	* @throws IOException
+	*/
+	public synchronized long next( long at )
+		throws IOException
+		{
+		ByteBuffer length = ByteBuffer.allocate(4);
+		readFully( length, at + E_LENGTH );
+		return at + ENTRY_HEADER + length.getInt(0);
+		}
+
+	/**
+	* @return the work record of the entry at offset at, with the offset
+	* as its id
+	* @throws IOException
+	*/
+	public synchronized WorkRecord read( long at )
+		throws IOException
+		{
+		m_header.clear();
+		readFully( m_header, at );
+		ByteBuffer url = ByteBuffer.allocate( m_header.getInt(E_LENGTH));
+		readFully( url, at + ENTRY_HEADER );
+		URLKey key;
+		try { key = URLKey.parse( new String( url.array(), UTF8 )); }
+		catch (WorkException e) { throw new IOException( e.getMessage()); }
+		WorkRecord wr = new WorkRecord( at, WorkRecord.NULL_ID, key,
+		                  (char)(m_header.get(E_STATUS) & 0xFF), m_header.getInt(E_DEPTH),
+		                  m_header.getLong(E_SOURCE), WorkRecord.NULL_ID, m_header.getLong(E_LMDT));
+		wr.setType( SpiderHook.URLType.values()[m_header.get(E_TYPE)] );
+		return wr;
+		}
+
+	/**
+	* Empty the store in place: its files stay open and mapped.
+	* @throws IOException
+	*/
+	public synchronized void clear()
+		throws IOException
+		{
+		m_buckets.clear();
+		m_buckets.putLong( H_BUCKETS, m_numBuckets );
+		m_buckets.putLong( 0, MAGIC );
+		m_data.truncate( DATA_START );
+		m_end = DATA_START;
+		m_size = 0;
+		}
+
+	private void readFully( ByteBuffer buf, long position )
+		throws IOException
+		{
+		while ( buf.hasRemaining())
+			if ( m_data.read( buf, position + buf.position()) < 0 )
+				throw new IOException( "URLStore truncated at " + position );
+		}
+
+	public void close()
+		{
+		m_buckets.close();
+		try { m_data.force(false); m_file.close(); }
+		catch (IOException e) {}
+		}
+	}
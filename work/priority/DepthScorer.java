@@ -0,0 +1,21 @@
+package com.shanebow.spider.work.priority;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* DepthScorer: Scores shallower urls higher, for a breadth first crawl.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.work.URLKey;
+import com.shanebow.spider.work.URLScorer;
+import com.shanebow.spider.work.WorkRecord;
+
+public class DepthScorer
+	implements URLScorer
+	{
+	public double score( URLKey url, WorkRecord source )
+		{
+		return (source == null) ? 0 : -(source.getDepth() + 1);
+		}
+	}
@@ -0,0 +1,351 @@
+package com.shanebow.spider.work.priority;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* PriorityWorkload: A best first workload. Each url is scored as it is
+* added and getWork() hands out the highest scoring waiting url, so that
+* the most valuable pages are fetched first when the crawl runs under a
+* time or page budget.
+*
+* The scorer is SpiderOptions.scorerClass if set, otherwise the spider's
+* SpiderHook if it implements URLScorer, otherwise a DepthScorer.
+*
+* At most SpiderOptions.frontierHeapSize waiting urls are kept in memory.
+* Lower scoring urls overflow to a spill file in workDirectory, which is
+* merged back in when the best url in memory scores below the best url
+* on disk.
+*
+* As in RAMWorkload, the methods are synchronized: a worker adds redirects
+* without holding the spider's monitor.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.Spider;
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.SpiderOptions;
+import com.shanebow.spider.work.*;
+import com.shanebow.util.SBLog;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class PriorityWorkload
+	implements Workload
+	{
+	public static final String MODULE="PriorityWork";
+	public static final String FILE_SPILL = "frontier.spill";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private void log( String format, Object... args )
+		{
+		SBLog.write( MODULE, String.format(format, args ));
+		}
+
+	/**
+	* A waiting record with its score; ties go to the earlier url.
+	*/
+	private static final class Entry
+		implements Comparable<Entry>
+		{
+		final double     score;
+		final long       seq;
+		final WorkRecord work;
+
+		Entry( double score, long seq, WorkRecord work )
+			{
+			this.score = score;
+			this.seq = seq;
+			this.work = work;
+			}
+
+		public int compareTo( Entry other )
+			{
+			if ( score != other.score )
+				return (score > other.score) ? -1 : 1;
+			return (seq < other.seq) ? -1 : (seq == other.seq) ? 0 : 1;
+			}
+		}
+
+	private Spider    m_spider;
+	private URLScorer m_scorer;
+	private Set<URLKey> m_seen = null;
+	private TreeSet<Entry> m_heap = null; // best first
+	private int  m_capacity;
+	private long m_nextID = 0;
+	private long m_seq = 0;
+
+	private File m_spillFile;
+	private DataOutputStream m_spill = null;
+	private long   m_spillCount = 0;
+	private double m_spillBest = Double.NEGATIVE_INFINITY;
+
+	/**
+	* Setup this workload for use by the specified spider.
+	* @param spider The spider using this workload.
+	* @throws WorkException if there is an initialization error
+	*/
+	public void init(Spider spider)
+		throws WorkException
+		{
+		m_spider = spider;
+		if ( m_heap != null )
+			throw new WorkException( "Trying to reinitialize existing workload" );
+		WorkRecord._maxLengthURL = -1; // allow arbitrary length
+		SpiderOptions opts = spider.getOptions();
+		try
+			{
+			if ( opts.scorerClass != null )
+				m_scorer = opts.scorerClass.getDeclaredConstructor().newInstance();
+			else if ( spider.getHook() instanceof URLScorer )
+				m_scorer = (URLScorer)spider.getHook();
+			else m_scorer = new DepthScorer();
+			}
+		catch (Exception e) { throw new WorkException(e); }
+		m_capacity = Math.max( 1, opts.frontierHeapSize );
+		File dir = new File( opts.workDirectory );
+		if ( !dir.isDirectory() && !dir.mkdirs())
+			throw new WorkException( "Cannot create " + dir );
+		m_spillFile = new File( dir, FILE_SPILL );
+		m_seen = new HashSet<URLKey>();
+		m_heap = new TreeSet<Entry>();
+		clearSpill();
+		}
+
+	/**
+	* Clear the workload.
+	* @throws WorkException if error precludes clearing the workload.
+	*/
+	public synchronized void clear()
+		throws WorkException
+		{
+		m_seen.clear();
+		m_heap.clear();
+		clearSpill();
+		m_nextID = 0;
+		}
+
+	/**
+	* @return true if there is no more work to do now.
+	* @throws WorkException if cannot determine whether empty workload
+	*/
+	public synchronized boolean isEmpty()
+		throws WorkException
+		{
+		return m_heap.isEmpty() && (m_spillCount == 0);
+		}
+
+	/**
+	* Add the specified URL to the workload.
+	* @param  url    The URL to be added.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add( String url )
+		throws WorkException
+		{
+		return add( URLKey.of(WorkRecord.toURL(url)), null, WorkRecord.WAITING );
+		}
+
+	/**
+	* Add the specified URL, found by a hyperlink, to the workload.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add(URLKey url, WorkRecord source, char status )
+		throws WorkException
+		{
+		return add( url, source, status, SpiderHook.URLType.HYPERLINK );
+		}
+
+	/**
+	* Add the specified URL to the workload.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @param  type   How the URL was found, kept with the record.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public synchronized boolean add(URLKey url, WorkRecord source, char status,
+	                                SpiderHook.URLType type )
+		throws WorkException
+		{
+		if ( !m_seen.add(url))
+			return false;
+		WorkRecord record = new WorkRecord( url, source, status );
+		record.setType( type );
+		record.setID( m_nextID++ );
+		if ( status == WorkRecord.WAITING )
+			offer( new Entry( m_scorer.score(url, source), m_seq++, record ));
+		return true;
+		}
+
+	/**
+	* Put the entry in the heap if it ranks among the best, else spill it.
+	*/
+	private void offer( Entry entry )
+		throws WorkException
+		{
+		if (( m_spillCount > 0 ) && ( entry.score <= m_spillBest ))
+			spill( entry );
+		else if ( m_heap.size() < m_capacity )
+			m_heap.add( entry );
+		else if ( entry.compareTo( m_heap.last()) < 0 )
+			{
+			spill( m_heap.pollLast());
+			m_heap.add( entry );
+			}
+		else spill( entry );
+		}
+
+	/**
+	* Determine if the workload contains the specified URL.
+	* @param url
+	* @return true if the workload already contains the URL
+	*/
+	public synchronized boolean contains(URLKey url)
+		{
+		return m_seen.contains(url);
+		}
+
+	/**
+	* Get the highest scoring waiting URL. The URL returned is marked as
+	* in progress.
+	* @return The next URL to parse, or null if none are waiting
+	* @throws WorkException if the next URL could not be obtained.
+	*/
+	public synchronized WorkRecord getWork() throws WorkException
+		{
+		if (( m_spillCount > 0 )
+		&&  ( m_heap.isEmpty() || m_heap.first().score < m_spillBest ))
+			refill();
+		Entry entry = m_heap.pollFirst();
+		if ( entry == null )
+			return null;
+		entry.work.setStatus( WorkRecord.ACTIVE );
+		return entry.work;
+		}
+
+	private void spill( Entry entry )
+		throws WorkException
+		{
+		try
+			{
+			if ( m_spill == null )
+				m_spill = new DataOutputStream( new BufferedOutputStream(
+				                     new FileOutputStream( m_spillFile, true )));
+			write( m_spill, entry );
+			}
+		catch (IOException e) { throw new WorkException(e); }
+		++m_spillCount;
+		if ( entry.score > m_spillBest )
+			m_spillBest = entry.score;
+		}
+
+	/**
+	* Merge the spill file with the heap: the best entries stay in memory
+	* and the rest are written to a new spill file.
+	*/
+	private void refill()
+		throws WorkException
+		{
+		File merged = new File( m_spillFile.getPath() + ".tmp" );
+		DataInputStream in = null;
+		DataOutputStream out = null;
+		long count = 0;
+		double best = Double.NEGATIVE_INFINITY;
+		try
+			{
+			if ( m_spill != null )
+				m_spill.close();
+			m_spill = null;
+			in = new DataInputStream( new BufferedInputStream(
+			                     new FileInputStream( m_spillFile )));
+			out = new DataOutputStream( new BufferedOutputStream(
+			                     new FileOutputStream( merged )));
+			for ( long i = 0; i < m_spillCount; i++ )
+				{
+				m_heap.add( read(in));
+				if ( m_heap.size() > m_capacity )
+					{
+					Entry worst = m_heap.pollLast();
+					write( out, worst );
+					++count;
+					if ( worst.score > best )
+						best = worst.score;
+					}
+				}
+			}
+		catch (IOException e) { throw new WorkException(e); }
+		finally
+			{
+			try { if ( in != null ) in.close(); } catch (IOException e) {}
+			try { if ( out != null ) out.close(); } catch (IOException e) {}
+			}
+		if ( !m_spillFile.delete() || !merged.renameTo( m_spillFile ))
+			throw new WorkException( "Cannot replace " + m_spillFile );
+		log( "refill: %d in memory, %d spilled", m_heap.size(), count );
+		m_spillCount = count;
+		m_spillBest = best;
+		}
+
+	private void clearSpill()
+		{
+		if ( m_spill != null )
+			try { m_spill.close(); } catch (IOException e) {}
+		m_spill = null;
+		m_spillFile.delete();
+		m_spillCount = 0;
+		m_spillBest = Double.NEGATIVE_INFINITY;
+		}
+
+	private static void write( DataOutputStream out, Entry entry )
+		throws IOException
+		{
+		WorkRecord wr = entry.work;
+		out.writeDouble( entry.score );
+		out.writeLong( entry.seq );
+		out.writeLong( wr.getID());
+		out.writeInt( wr.getDepth());
+		out.writeLong( wr.getSourceID());
+		out.writeLong( wr.getLMDT());
+		out.writeByte( wr.getType().ordinal());
+		byte[] url = wr.getKey().toString().getBytes( UTF8 ); // unlike writeUTF, any length
+		out.writeInt( url.length );
+		out.write( url );
+		}
+
+	private static Entry read( DataInputStream in )
+		throws IOException
+		{
+		double score = in.readDouble();
+		long seq = in.readLong();
+		long id = in.readLong();
+		int depth = in.readInt();
+		long idSource = in.readLong();
+		long lmdt = in.readLong();
+		SpiderHook.URLType type = SpiderHook.URLType.values()[in.readByte()];
+		URLKey url;
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully( bytes );
+		try { url = URLKey.parse( new String( bytes, UTF8 )); }
+		catch (WorkException e) { throw new IOException(e.getMessage()); }
+		WorkRecord wr = new WorkRecord( id, WorkRecord.NULL_ID, url,
+		                  WorkRecord.WAITING, depth, idSource, WorkRecord.NULL_ID, lmdt );
+		wr.setType( type );
+		return new Entry( score, seq, wr );
+		}
+
+	public synchronized void shutdown()
+		{
+		log( "shutdown: %d seen, %d waiting in memory, %d spilled",
+		     m_seen.size(), m_heap.size(), m_spillCount );
+		clearSpill();
+		}
+	}
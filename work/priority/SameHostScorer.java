@@ -0,0 +1,27 @@
+package com.shanebow.spider.work.priority;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* SameHostScorer: Scores urls on the same host as the page they were
+* found on above off site urls, shallower first within each group.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.work.URLKey;
+import com.shanebow.spider.work.URLScorer;
+import com.shanebow.spider.work.WorkRecord;
+
+public class SameHostScorer
+	implements URLScorer
+	{
+	private static final double OFF_SITE = -1000000;
+
+	public double score( URLKey url, WorkRecord source )
+		{
+		if ( source == null )
+			return 0;
+		double depth = -(source.getDepth() + 1);
+		return url.getHost().equals(source.getKey().getHost()) ? depth : OFF_SITE + depth;
+		}
+	}
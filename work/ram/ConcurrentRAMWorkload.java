@@ -0,0 +1,152 @@
+package com.shanebow.spider.work.ram;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* ConcurrentRAMWorkload: An in memory workload that many parser threads
+* can add to while the spider takes work, without a global lock. Urls
+* are deduplicated in a concurrent set of URLKeys and the waiting records
+* are held in a lock free multi producer, multi consumer queue, so work
+* is still handed out in discovery order.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.Spider;
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.work.*;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConcurrentRAMWorkload
+	implements ConcurrentWorkload
+	{
+	private Set<URLKey> m_seen = null;
+	private Queue<WorkRecord> m_waiting = null;
+	private Queue<WorkRecord> m_workload = null; // every record, for shutdown()
+	private final AtomicLong m_nextID = new AtomicLong();
+	private Spider m_spider;
+
+	/**
+	* Setup this workload for use by the specified spider.
+	* @param spider The spider using this workload.
+	* @throws WorkException if there is an initialization error
+	*/
+	public void init(Spider spider)
+		throws WorkException
+		{
+		m_spider = spider;
+		if ( m_workload != null )
+			throw new WorkException( "Trying to reinitialize existing workload" );
+		WorkRecord._maxLengthURL = -1; // allow arbitrary length
+		m_seen = Collections.newSetFromMap(
+		                  new ConcurrentHashMap<URLKey,Boolean>( 1024, 0.75f,
+		                        spider.getOptions().maximumPoolSize ));
+		m_waiting = new ConcurrentLinkedQueue<WorkRecord>();
+		m_workload = new ConcurrentLinkedQueue<WorkRecord>();
+		}
+
+	/**
+	* Clear the workload.
+	* @throws WorkException if error precludes clearing the workload.
+	*/
+	public void clear() // throws WorkException;
+		{
+		m_waiting.clear();
+		m_workload.clear();
+		m_seen.clear();
+		m_nextID.set(0);
+		}
+
+	/**
+	* @return true if there is no more work to do now.
+	* @throws WorkException if cannot determine whether empty workload
+	*/
+	public boolean isEmpty()
+		throws WorkException
+		{
+		return m_waiting.isEmpty();
+		}
+
+	/**
+	* Add the specified URL to the workload.
+	* @param  url    The URL to be added.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add( String url )
+		throws WorkException
+		{
+		return add( URLKey.of(WorkRecord.toURL(url)), null, WorkRecord.WAITING );
+		}
+
+	/**
+	* Add the specified URL, found by a hyperlink, to the workload.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add(URLKey url, WorkRecord source, char status )
+		throws WorkException
+		{
+		return add( url, source, status, SpiderHook.URLType.HYPERLINK );
+		}
+
+	/**
+	* Add the specified URL to the workload. Safe to call from any thread.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @param  type   How the URL was found, kept with the record.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add(URLKey url, WorkRecord source, char status,
+	                   SpiderHook.URLType type )
+		throws WorkException
+		{
+		if ( !m_seen.add(url))
+			return false;
+		WorkRecord record = new WorkRecord( url, source, status );
+		record.setType( type );
+		record.setID( m_nextID.getAndIncrement());
+		m_workload.add( record );
+		if ( status == WorkRecord.WAITING )
+			m_waiting.add( record );
+		return true;
+		}
+
+	/**
+	* Determine if the workload contains the specified URL.
+	* @param url
+	* @return true if the workload already contains the URL
+	*/
+	public boolean contains(URLKey url)
+		{
+		return m_seen.contains(url);
+		}
+
+	/**
+	* Get a new URL to work on. The URL returned is marked as in progress.
+	* @return The next URL to parse, or null if none are waiting
+	* @throws WorkException if the next URL could not be obtained.
+	*/
+	public WorkRecord getWork() throws WorkException
+		{
+		WorkRecord wr = m_waiting.poll();
+		if ( wr != null )
+			wr.setStatus( WorkRecord.ACTIVE );
+		return wr;
+		}
+
+	public void shutdown()
+		{
+		for ( WorkRecord wr : m_workload )
+			System.out.println( wr.formatted());
+		}
+	}
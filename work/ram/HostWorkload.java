@@ -0,0 +1,243 @@
+package com.shanebow.spider.work.ram;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* HostWorkload: A polite in memory workload. Waiting urls are queued per
+* host and the hosts are kept in a heap ordered by the time each may next
+* be contacted. getWork() hands out the next url of the first eligible
+* host: one whose hostMinDelay has elapsed since its last request and
+* that has fewer than hostMaxActive requests in progress. Thus the pool
+* threads are spread across hosts instead of hammering the host that
+* happens to be first in discovery order.
+*
+* A host is identified by URLKey.getAuthority(), its name and any port
+* other than the default, so the servers on different ports of the same
+* name are each treated politely in their own right.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.Spider;
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.work.*;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Vector;
+
+public class HostWorkload
+	implements Workload
+	{
+	/**
+	* The waiting work and politeness state of a single host.
+	*/
+	private static final class HostQueue
+		implements Comparable<HostQueue>
+		{
+		final ArrayDeque<WorkRecord> waiting = new ArrayDeque<WorkRecord>();
+		int     active = 0;     // requests in progress
+		long    readyAt = 0;    // earliest time of next request
+		boolean inHeap = false;
+
+		public int compareTo( HostQueue other )
+			{
+			return (readyAt < other.readyAt) ? -1 : (readyAt == other.readyAt) ? 0 : 1;
+			}
+		}
+
+	/**
+	* A WorkRecord that tells its host when it is finished.
+	*/
+	private final class HostWork extends WorkRecord
+		{
+		private final HostQueue m_host;
+
+		HostWork( URLKey url, WorkRecord source, char status, HostQueue host )
+			throws WorkException
+			{
+			super( url, source, status );
+			m_host = host;
+			}
+
+		@Override
+		public void setStatus(char status)
+			throws WorkException
+			{
+			boolean wasActive = (getStatus() == ACTIVE);
+			super.setStatus(status);
+			if ( wasActive && (status == SUCCESS || status == ERROR))
+				finished( m_host );
+			}
+		}
+
+	private List<WorkRecord> m_workload = null;
+	private Set<URLKey> m_seen = null;
+	private Map<String,HostQueue> m_hosts = null; // by authority
+	private PriorityQueue<HostQueue> m_ready = null; // hosts with eligible work
+	private int m_waitingCount = 0;
+	private long m_minDelay;
+	private int  m_maxActive;
+	private Spider m_spider;
+
+	/**
+	* Setup this workload for use by the specified spider.
+	* @param spider The spider using this workload.
+	* @throws WorkException if there is an initialization error
+	*/
+	public void init(Spider spider)
+		throws WorkException
+		{
+		m_spider = spider;
+		if ( m_workload != null )
+			throw new WorkException( "Trying to reinitialize existing workload" );
+		WorkRecord._maxLengthURL = -1; // allow arbitrary length
+		m_minDelay = Math.max( 0, spider.getOptions().hostMinDelay );
+		m_maxActive = Math.max( 1, spider.getOptions().hostMaxActive );
+		m_workload = new Vector<WorkRecord>();
+		m_seen = new HashSet<URLKey>();
+		m_hosts = new HashMap<String,HostQueue>();
+		m_ready = new PriorityQueue<HostQueue>();
+		}
+
+	/**
+	* Clear the workload.
+	* @throws WorkException if error precludes clearing the workload.
+	*/
+	public synchronized void clear() // throws WorkException;
+		{
+		m_workload.clear();
+		m_seen.clear();
+		m_hosts.clear();
+		m_ready.clear();
+		m_waitingCount = 0;
+		}
+
+	/**
+	* @return true if there is no more work to do now. Note that waiting
+	* urls whose hosts are not yet eligible count as work to do.
+	* @throws WorkException if cannot determine whether empty workload
+	*/
+	public synchronized boolean isEmpty()
+		throws WorkException
+		{
+		return m_waitingCount == 0;
+		}
+
+	/**
+	* Add the specified URL to the workload.
+	* @param  url    The URL to be added.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add( String url )
+		throws WorkException
+		{
+		return add( URLKey.of(WorkRecord.toURL(url)), null, WorkRecord.WAITING );
+		}
+
+	/**
+	* Add the specified URL, found by a hyperlink, to the workload.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add(URLKey url, WorkRecord source, char status )
+		throws WorkException
+		{
+		return add( url, source, status, SpiderHook.URLType.HYPERLINK );
+		}
+
+	/**
+	* Add the specified URL to the workload.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @param  type   How the URL was found, kept with the record.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public synchronized boolean add(URLKey url, WorkRecord source, char status,
+	                                SpiderHook.URLType type )
+		throws WorkException
+		{
+		if ( !m_seen.add(url))
+			return false;
+		HostQueue host = m_hosts.get(url.getAuthority());
+		if ( host == null )
+			m_hosts.put( url.getAuthority(), host = new HostQueue());
+		WorkRecord record = new HostWork( url, source, status, host );
+		record.setType( type );
+		m_workload.add( record );
+		record.setID( m_workload.size() - 1);
+		if ( status == WorkRecord.WAITING )
+			{
+			host.waiting.add( record );
+			++m_waitingCount;
+			schedule( host );
+			}
+		return true;
+		}
+
+	/**
+	* Determine if the workload contains the specified URL.
+	* @param url
+	* @return true if the workload already contains the URL
+	*/
+	public synchronized boolean contains(URLKey url)
+		{
+		return m_seen.contains(url);
+		}
+
+	/**
+	* Get the next URL of the first host that may be contacted now. The
+	* URL returned is marked as in progress.
+	* @return The next URL to parse, or null if no host is eligible yet
+	* @throws WorkException if the next URL could not be obtained.
+	*/
+	public synchronized WorkRecord getWork() throws WorkException
+		{
+		HostQueue host = m_ready.peek();
+		long now = System.currentTimeMillis();
+		if ( host == null || host.readyAt > now )
+			return null;
+		m_ready.poll();
+		host.inHeap = false;
+		WorkRecord wr = host.waiting.poll();
+		--m_waitingCount;
+		++host.active;
+		host.readyAt = now + m_minDelay;
+		schedule( host );
+		wr.setStatus( WorkRecord.ACTIVE );
+		return wr;
+		}
+
+	/**
+	* Put the host in the ready heap if it has eligible work.
+	*/
+	private void schedule( HostQueue host )
+		{
+		if ( !host.inHeap && !host.waiting.isEmpty() && host.active < m_maxActive )
+			{
+			host.inHeap = true;
+			m_ready.add( host );
+			}
+		}
+
+	private synchronized void finished( HostQueue host )
+		{
+		--host.active;
+		schedule( host );
+		}
+
+	public void shutdown()
+		{
+		for ( WorkRecord wr : m_workload )
+			System.out.println( wr.formatted());
+		}
+	}
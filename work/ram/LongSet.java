@@ -0,0 +1,83 @@
+package com.shanebow.spider.work.ram;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* LongSet: An open addressing hash set of longs in a primitive array,
+* eight to sixteen bytes per member.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+public final class LongSet
+	{
+	private static final long EMPTY = 0;
+	private static final long ZERO = Long.MIN_VALUE; // stands in for 0
+
+	private long[] m_table = new long[1024];
+	private int    m_size = 0;
+
+	public int size() { return m_size; }
+
+	/**
+	* @return true if the value was not already a member
+	*/
+	public boolean add( long value )
+		{
+		if ( value == EMPTY )
+			value = ZERO;
+		int slot = find( m_table, value );
+		if ( m_table[slot] != EMPTY )
+			return false;
+		m_table[slot] = value;
+		if ( 2 * ++m_size > m_table.length )
+			{
+			long[] table = new long[2 * m_table.length];
+			for ( long member : m_table )
+				if ( member != EMPTY )
+					table[find( table, member )] = member;
+			m_table = table;
+			}
+		return true;
+		}
+
+	public boolean contains( long value )
+		{
+		if ( value == EMPTY )
+			value = ZERO;
+		return m_table[find( m_table, value )] != EMPTY;
+		}
+
+	private static int find( long[] table, long value )
+		{
+		int mask = table.length - 1;
+		int slot = (int)(value ^ (value >>> 32)) & mask;
+		while ( table[slot] != EMPTY && table[slot] != value )
+			slot = (slot + 1) & mask;
+		return slot;
+		}
+
+	/**
+	* @return the members of this set
+	*/
+	public long[] toArray()
+		{
+		long[] it = new long[m_size];
+		int n = 0;
+		for ( long member : m_table )
+			if ( member != EMPTY )
+				it[n++] = (member == ZERO) ? EMPTY : member;
+		return it;
+		}
+
+	public void addAll( LongSet other )
+		{
+		for ( long member : other.toArray())
+			add( member );
+		}
+
+	public void clear()
+		{
+		m_table = new long[1024];
+		m_size = 0;
+		}
+	}
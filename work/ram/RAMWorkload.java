@@ -12,17 +12,36 @@ package com.shanebow.spider.work.ram;
 * @version 1.0
 */
 import com.shanebow.spider.Spider;
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.SpiderOptions;
 import com.shanebow.spider.work.*;
-import java.net.URL;
-import java.util.List;
-import java.util.Vector;
+import com.shanebow.util.SBLog;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Timer;
+import java.util.TimerTask;
 
 public class RAMWorkload
-	implements Workload
+	implements Checkpointable
 	{
-	private List<WorkRecord> m_workload = null;
-	private int m_nextWaiting = 0;
+	public static final String MODULE="RAMWork";
+	private static final long CHECKPOINT_MAGIC = 0x5342434B50543032L; // "SBCKPT02"
+
+	private void log( String format, Object... args )
+		{
+		SBLog.write( MODULE, String.format(format, args ));
+		}
+
+	private RecordStore  m_workload = null; // every url, indexed by id
+	private ResultWriter m_results = null;
+	private long m_nextWaiting = 0;
 	private Spider m_spider;
+	private File   m_checkpoint = null;
+	private Timer  m_checkpointTimer = null;
+	private final Object m_checkpointLock = new Object();
 
 	/**
 	* Setup this workload for use by the specified spider.
@@ -36,14 +55,123 @@ public class RAMWorkload
 		if ( m_workload != null )
 			throw new WorkException( "Trying to reinitialize existing workload" );
 		WorkRecord._maxLengthURL = -1; // allow arbitrary length
-		m_workload = new Vector<WorkRecord>();
+		SpiderOptions opts = spider.getOptions();
+		if ( opts.checkpointFile != null )
+			m_checkpoint = new File( opts.checkpointFile );
+		boolean resume = opts.resume && (m_checkpoint != null) && m_checkpoint.exists();
+		m_results = new ResultWriter( opts.resultsFile, resume );
+		m_workload = new RecordStore( opts.retireFinished ? m_results : null );
+		if ( resume )
+			restore();
+		if (( m_checkpoint != null ) && ( opts.checkpointInterval > 0 ))
+			{
+			long period = 1000L * opts.checkpointInterval;
+			m_checkpointTimer = new Timer( "checkpoint", true );
+			m_checkpointTimer.schedule( new TimerTask()
+				{
+				public void run()
+					{
+					try { checkpoint(); }
+					catch (WorkException e) { log( "checkpoint failed: %s", e ); }
+					}
+				}, period, period );
+			}
+		}
+
+	/**
+	* Save the records, the read cursor and the seen set to the checkpoint
+	* file. The workload is only held up while the records are copied,
+	* the file is written from the copy; it is written to a temporary file
+	* and atomically moved over the old one, so a crash leaves either the
+	* old or the new checkpoint, never a partial one or none.
+	* @throws WorkException if the checkpoint could not be written
+	*/
+	public void checkpoint()
+		throws WorkException
+		{
+		if ( m_checkpoint == null )
+			throw new WorkException( "No checkpointFile specified" );
+		synchronized (m_checkpointLock)
+			{
+			long start = System.currentTimeMillis();
+			RecordStore copy;
+			long cursor;
+			synchronized (this)
+				{
+				copy = m_workload.copy();
+				cursor = m_nextWaiting;
+				}
+			long copied = System.currentTimeMillis();
+			File temp = new File( m_checkpoint.getPath() + ".tmp" );
+			RandomAccessFile file = null;
+			try
+				{
+				file = new RandomAccessFile( temp, "rw" );
+				file.setLength(0);
+				FileChannel out = file.getChannel();
+				ByteBuffer header = ByteBuffer.allocate(16);
+				header.putLong( CHECKPOINT_MAGIC ).putLong( cursor ).flip();
+				while ( header.hasRemaining())
+					out.write( header );
+				copy.save( out );
+				out.force( false );
+				}
+			catch (IOException e) { throw new WorkException(e); }
+			finally
+				{
+				try { if ( file != null ) file.close(); }
+				catch (IOException e) {}
+				}
+			try
+				{
+				Files.move( temp.toPath(), m_checkpoint.toPath(),
+				            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+				}
+			catch (IOException e) { throw new WorkException( "Cannot rename checkpoint to " + m_checkpoint ); }
+			log( "checkpoint: %d records in %dms (copy %dms)", copy.end() - copy.retired(),
+			     System.currentTimeMillis() - start, copied - start );
+			}
+		}
+
+	/**
+	* Load the checkpoint file; records that were in progress when it was
+	* taken are set back to waiting.
+	*/
+	private void restore()
+		throws WorkException
+		{
+		long start = System.currentTimeMillis();
+		RandomAccessFile file = null;
+		try
+			{
+			file = new RandomAccessFile( m_checkpoint, "r" );
+			FileChannel in = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(16);
+			while ( header.hasRemaining())
+				if ( in.read( header ) < 0 )
+					throw new IOException( "Checkpoint is truncated" );
+			header.flip();
+			if ( header.getLong() != CHECKPOINT_MAGIC )
+				throw new IOException( m_checkpoint + " is not a checkpoint" );
+			long cursor = header.getLong();
+			m_workload.load( in );
+			m_nextWaiting = Math.min( cursor, m_workload.resetActive());
+			}
+		catch (IOException e) { throw new WorkException(e); }
+		finally
+			{
+			try { if ( file != null ) file.close(); }
+			catch (IOException e) {}
+			}
+		log( "resumed %d records from %s in %dms", m_workload.end() - m_workload.retired(),
+		     m_checkpoint, System.currentTimeMillis() - start );
 		}
 
 	/**
 	* Clear the workload.
 	* @throws WorkException if error precludes clearing the workload.
 	*/
-	public void clear() // throws WorkException;
+	public synchronized void clear() // throws WorkException;
 		{
 		m_workload.clear();
 		m_nextWaiting = 0;
@@ -56,7 +184,7 @@ public class RAMWorkload
 	public boolean isEmpty()
 		throws WorkException
 		{
-		return m_workload.size() <= m_nextWaiting;
+		return m_workload.end() <= m_nextWaiting;
 		}
 
 	/**
@@ -68,25 +196,39 @@ public class RAMWorkload
 	public boolean add( String url )
 		throws WorkException
 		{
-		return add( WorkRecord.toURL(url), null, WorkRecord.WAITING );
+		return add( URLKey.of(WorkRecord.toURL(url)), null, WorkRecord.WAITING );
+		}
+
+	/**
+	* Add the specified URL, found by a hyperlink, to the workload.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add(URLKey url, WorkRecord source, char status )
+		throws WorkException
+		{
+		return add( url, source, status, SpiderHook.URLType.HYPERLINK );
 		}
 
 	/**
 	* Add the specified URL to the workload.
 	* @param  url    The URL to be added.
 	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @param  type   How the URL was found, kept with the record.
 	* @return true   if the URL was added, false otherwise.
 	* @throws WorkException
 	*/
-	public boolean add(URL url, WorkRecord source, char status )
+	public boolean add(URLKey url, WorkRecord source, char status,
+	                   SpiderHook.URLType type )
 		throws WorkException
 		{
-		if ( contains(url))
-			return false;
-		WorkRecord record = new WorkRecord( url, source, status );
-		m_workload.add( record );
-		record.setID( m_workload.size() - 1);
-		return true;
+		int depth = (source == null) ? 0 : source.getDepth() + 1;
+		long idSource = (source == null) ? WorkRecord.NULL_ID : source.getID();
+		return m_workload.add( url, status, depth, idSource, WorkRecord.timeNow(), type ) >= 0;
 		}
 
 	/**
@@ -95,12 +237,9 @@ public class RAMWorkload
 	* @return
 	* @throws WorkException
 	*/
-	public boolean contains(URL url) // throws WorkException
+	public boolean contains(URLKey url) // throws WorkException
 		{
-		for ( WorkRecord work : m_workload )
-			if ( work.equals(url))
-				return true;
-		return false;
+		return m_workload.contains(url);
 		}
 
 	/**
@@ -110,18 +249,31 @@ public class RAMWorkload
 	* @return The next URL to parse
 	* @throws WorkException if the next URL could not be obtained.
 	*/
-	public WorkRecord getWork() throws WorkException
+	public synchronized WorkRecord getWork() throws WorkException
 		{
-		if ( m_nextWaiting >= m_workload.size())
-			return null;
-		WorkRecord wr = m_workload.get(m_nextWaiting++);
-		wr.setStatus( WorkRecord.ACTIVE );
-		return wr;
+		m_nextWaiting = Math.max( m_nextWaiting, m_workload.retired());
+		while ( m_nextWaiting < m_workload.end())
+			{
+			long i = m_nextWaiting++;
+			if ( m_workload.getStatus(i) != WorkRecord.WAITING )
+				continue; // e.g. a redirect target, added as processed
+			WorkRecord wr = new StoredWork( m_workload, i );
+			wr.setStatus( WorkRecord.ACTIVE );
+			return wr;
+			}
+		return null;
 		}
 
 	public void shutdown()
 		{
-		for ( WorkRecord wr : m_workload )
-			System.out.println( wr.formatted());
+		if ( m_checkpointTimer != null )
+			m_checkpointTimer.cancel();
+		if ( m_checkpoint != null )
+			{
+			try { checkpoint(); }
+			catch (WorkException e) { log( "final checkpoint failed: %s", e ); }
+			}
+		m_workload.writeTo( m_results );
+		m_results.close();
 		}
 	}
@@ -0,0 +1,567 @@
+package com.shanebow.spider.work.ram;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* RecordStore: Compact, column oriented storage for WorkRecords. Each
+* field is kept in a parallel primitive array indexed by row, and the
+* url bytes of all records share a single byte arena, so a url costs
+* about 45 bytes plus its length instead of a WorkRecord, a URLKey and
+* their Strings. Records are identified by id, assigned in order of
+* addition, and are looked up by url through an open addressing table of
+* rows keyed on the URLKey's 64-bit hash.
+*
+* Host names are interned: hostId is an index into the store's table of
+* distinct hosts.
+*
+* If the store is given a ResultWriter it retires finished records: each
+* record that reaches SUCCESS or ERROR is written to the ResultWriter,
+* and once enough of the oldest records are finished their rows are
+* dropped, leaving only their 64-bit url hash in a LongSet to detect
+* duplicates. Memory is then bounded by the records still in play.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.work.URLKey;
+import com.shanebow.spider.work.WorkException;
+import com.shanebow.spider.work.WorkRecord;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class RecordStore
+	{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int INITIAL = 1024;
+	private static final int MIN_RETIRE = 4096; // rows to drop at a time
+
+	private long   m_base = 0; // id of row 0
+	private int    m_size = 0; // rows in use
+	private byte[] m_status = new byte[INITIAL];
+	private byte[] m_type   = new byte[INITIAL]; // URLType ordinal
+	private int[]  m_depth  = new int[INITIAL];
+	private int[]  m_host   = new int[INITIAL];
+	private long[] m_source = new long[INITIAL];
+	private long[] m_lmdt   = new long[INITIAL];
+	private long[] m_hash   = new long[INITIAL];
+	private int[]  m_start  = new int[INITIAL + 1]; // url of row i in [start[i],start[i+1])
+	private byte[] m_arena  = new byte[INITIAL * 64];
+
+	private int[]  m_table = new int[2 * INITIAL]; // row + 1, 0 if empty
+
+	private final Map<String,Integer> m_hostIDs = new HashMap<String,Integer>();
+	private final List<String>        m_hosts = new ArrayList<String>();
+
+	private final ResultWriter m_results; // null unless retiring
+	private final LongSet m_retired = new LongSet(); // url hashes of dropped rows
+	private int m_finished = 0; // rows [0,m_finished) are all finished
+
+	/**
+	* Create a store that keeps every record.
+	*/
+	public RecordStore()
+		{
+		this( null );
+		}
+
+	/**
+	* Create a store that writes finished records to results and retires
+	* them; if results is null every record is kept.
+	*/
+	public RecordStore( ResultWriter results )
+		{
+		m_results = results;
+		}
+
+	/**
+	* @return the id that the next record added will get
+	*/
+	public synchronized long end() { return m_base + m_size; }
+
+	/**
+	* @return true if this store drops the rows of finished records
+	*/
+	public boolean retires() { return m_results != null; }
+
+	/**
+	* @return the number of records whose rows have been dropped
+	*/
+	public synchronized long retired() { return m_base; }
+
+	/**
+	* Append a record for the url unless the store already contains it.
+	* @return the id of the new record, or -1 if the url is present
+	* @throws WorkException if the url arena is full
+	*/
+	public synchronized long add( URLKey url, char status, int depth, long idSource, long lmdt,
+	                              SpiderHook.URLType type )
+		throws WorkException
+		{
+		long hash = url.hash64();
+		byte[] bytes = url.toString().getBytes(UTF8);
+		int slot = find( hash, bytes );
+		if ( m_table[slot] != 0 || m_retired.contains( hash ))
+			return -1;
+		int i = m_size;
+		ensureCapacity( i + 1, m_start[i] + bytes.length );
+		m_status[i] = (byte)status;
+		m_type[i] = (byte)type.ordinal();
+		m_depth[i] = depth;
+		m_host[i] = hostID( url.getHost());
+		m_source[i] = idSource;
+		m_lmdt[i] = lmdt;
+		m_hash[i] = hash;
+		System.arraycopy( bytes, 0, m_arena, m_start[i], bytes.length );
+		m_start[i + 1] = m_start[i] + bytes.length;
+		m_size = i + 1;
+		m_table[slot] = i + 1;
+		if ( 2 * m_size > m_table.length )
+			rehash( 2 * m_table.length );
+		if (( m_results != null ) && isFinished(status))
+			{
+			m_results.write( formatRow(i));
+			retire();
+			}
+		return m_base + i;
+		}
+
+	/**
+	* @return true if the store contains, or has retired, the url
+	*/
+	public synchronized boolean contains( URLKey url )
+		{
+		long hash = url.hash64();
+		return m_table[find( hash, url.toString().getBytes(UTF8))] != 0
+		    || m_retired.contains( hash );
+		}
+
+	/**
+	* @return the table slot holding the url, or the empty slot where
+	* it belongs.
+	*/
+	private int find( long hash, byte[] url )
+		{
+		int mask = m_table.length - 1;
+		for ( int slot = (int)(hash ^ (hash >>> 32)) & mask; ; slot = (slot + 1) & mask )
+			{
+			int i = m_table[slot] - 1;
+			if ( i < 0 || ( m_hash[i] == hash && sameURL( i, url )))
+				return slot;
+			}
+		}
+
+	private boolean sameURL( int i, byte[] url )
+		{
+		int start = m_start[i];
+		if ( m_start[i + 1] - start != url.length )
+			return false;
+		for ( int j = 0; j < url.length; j++ )
+			if ( m_arena[start + j] != url[j] )
+				return false;
+		return true;
+		}
+
+	private void rehash( int capacity )
+		{
+		m_table = new int[capacity];
+		int mask = capacity - 1;
+		for ( int i = 0; i < m_size; i++ )
+			{
+			long hash = m_hash[i];
+			int slot = (int)(hash ^ (hash >>> 32)) & mask;
+			while ( m_table[slot] != 0 )
+				slot = (slot + 1) & mask;
+			m_table[slot] = i + 1;
+			}
+		}
+
+	private void ensureCapacity( int records, int bytes )
+		throws WorkException
+		{
+		if ( records > m_status.length )
+			{
+			int n = Math.max( records, m_status.length + (m_status.length >> 1));
+			m_status = Arrays.copyOf( m_status, n );
+			m_type   = Arrays.copyOf( m_type, n );
+			m_depth  = Arrays.copyOf( m_depth, n );
+			m_host   = Arrays.copyOf( m_host, n );
+			m_source = Arrays.copyOf( m_source, n );
+			m_lmdt   = Arrays.copyOf( m_lmdt, n );
+			m_hash   = Arrays.copyOf( m_hash, n );
+			m_start  = Arrays.copyOf( m_start, n + 1 );
+			}
+		if ( bytes < 0 )
+			throw new WorkException( "RecordStore url arena is full" );
+		if ( bytes > m_arena.length )
+			{
+			long n = Math.max( bytes, m_arena.length + ((long)m_arena.length >> 1));
+			m_arena = Arrays.copyOf( m_arena, (int)Math.min( n, Integer.MAX_VALUE - 8 ));
+			}
+		}
+
+	private int hostID( String host )
+		{
+		Integer id = m_hostIDs.get( host );
+		if ( id == null )
+			{
+			id = m_hosts.size();
+			m_hosts.add( host );
+			m_hostIDs.put( host, id );
+			}
+		return id;
+		}
+
+	private int row( long id )
+		{
+		long row = id - m_base;
+		if ( row < 0 || row >= m_size )
+			throw new IllegalArgumentException( "No record " + id + " in store" );
+		return (int)row;
+		}
+
+	public synchronized char   getStatus( long id ) { return (char)m_status[row(id)]; }
+	public synchronized int    getDepth( long id )  { return m_depth[row(id)]; }
+	public synchronized int    getHostID( long id ) { return m_host[row(id)]; }
+	public synchronized long   getSource( long id ) { return m_source[row(id)]; }
+	public synchronized long   getLMDT( long id )   { return m_lmdt[row(id)]; }
+	public synchronized String getHost( long id )   { return m_hosts.get( m_host[row(id)] ); }
+	public synchronized String getURL( long id )    { return url( row(id)); }
+	public synchronized SpiderHook.URLType getType( long id )
+		{
+		return SpiderHook.URLType.values()[m_type[row(id)]];
+		}
+
+	private String url( int i )
+		{
+		return new String( m_arena, m_start[i], m_start[i + 1] - m_start[i], UTF8 );
+		}
+
+	/**
+	* Update the status of a record. A record that has been retired is
+	* already finished and the update is ignored.
+	*/
+	public synchronized void setStatus( long id, char status, long lmdt )
+		{
+		if ( id < m_base )
+			return;
+		int i = row(id);
+		boolean wasFinished = isFinished( (char)m_status[i] );
+		m_status[i] = (byte)status;
+		m_lmdt[i] = lmdt;
+		if (( m_results != null ) && isFinished(status) && !wasFinished )
+			{
+			m_results.write( formatRow(i));
+			retire();
+			}
+		}
+
+	private static boolean isFinished( char status )
+		{
+		return (status == WorkRecord.SUCCESS) || (status == WorkRecord.ERROR);
+		}
+
+	/**
+	* Drop the leading rows that are finished, once there are enough of
+	* them to pay for moving the rest down.
+	*/
+	private void retire()
+		{
+		while ( m_finished < m_size && isFinished( (char)m_status[m_finished] ))
+			++m_finished;
+		int k = m_finished;
+		if ( k < MIN_RETIRE || k < m_size - k )
+			return;
+		for ( int i = 0; i < k; i++ )
+			m_retired.add( m_hash[i] );
+		int n = m_size - k;
+		int shift = m_start[k];
+		System.arraycopy( m_status, k, m_status, 0, n );
+		System.arraycopy( m_type,   k, m_type,   0, n );
+		System.arraycopy( m_depth,  k, m_depth,  0, n );
+		System.arraycopy( m_host,   k, m_host,   0, n );
+		System.arraycopy( m_source, k, m_source, 0, n );
+		System.arraycopy( m_lmdt,   k, m_lmdt,   0, n );
+		System.arraycopy( m_hash,   k, m_hash,   0, n );
+		System.arraycopy( m_arena, shift, m_arena, 0, m_start[m_size] - shift );
+		for ( int i = 0; i <= n; i++ )
+			m_start[i] = m_start[i + k] - shift;
+		m_size = n;
+		m_base += k;
+		m_finished = 0;
+		rehash( Math.max( 2 * INITIAL, 2 * Integer.highestOneBit( 2 * n + 1 )));
+		}
+
+	public String formatted( long id )
+		{
+		return String.format( "%4d %4d %d %s %s",
+			id, getSource(id), getDepth(id), "" + getStatus(id), getURL(id));
+		}
+
+	private String formatRow( int i )
+		{
+		return String.format( "%4d %4d %d %s %s",
+			m_base + i, m_source[i], m_depth[i], "" + (char)m_status[i], url(i));
+		}
+
+	/**
+	* Write the records still held to results: all of them, or when
+	* retiring just the unfinished ones, as the rest were already written.
+	*/
+	public synchronized void writeTo( ResultWriter results )
+		{
+		for ( int i = 0; i < m_size; i++ )
+			if ( m_results == null || !isFinished( (char)m_status[i] ))
+				results.write( formatRow(i));
+		}
+
+	/**
+	* @return a copy of this store's records, trimmed to size. The copy
+	* is a handful of array copies, so it is quick to take while the
+	* workers wait, and may then be saved at leisure.
+	*/
+	public synchronized RecordStore copy()
+		{
+		RecordStore it = new RecordStore();
+		it.m_base = m_base;
+		it.m_size = m_size;
+		it.m_status = Arrays.copyOf( m_status, m_size );
+		it.m_type = Arrays.copyOf( m_type, m_size );
+		it.m_depth = Arrays.copyOf( m_depth, m_size );
+		it.m_host = Arrays.copyOf( m_host, m_size );
+		it.m_source = Arrays.copyOf( m_source, m_size );
+		it.m_lmdt = Arrays.copyOf( m_lmdt, m_size );
+		it.m_hash = Arrays.copyOf( m_hash, m_size );
+		it.m_start = Arrays.copyOf( m_start, m_size + 1 );
+		it.m_arena = Arrays.copyOf( m_arena, m_start[m_size] );
+		it.m_hosts.addAll( m_hosts );
+		it.m_retired.addAll( m_retired );
+		return it;
+		}
+
+	/**
+	* Write the records to the channel in a compact binary form.
+	* @throws IOException
+	*/
+	public synchronized void save( FileChannel out )
+		throws IOException
+		{
+		ByteBuffer buf = ByteBuffer.allocateDirect( 1 << 20 );
+		buf.putLong( m_base ).putInt( m_size ).putInt( m_hosts.size());
+		for ( String host : m_hosts )
+			{
+			byte[] bytes = host.getBytes(UTF8);
+			if ( buf.remaining() < 4 + bytes.length )
+				drain( buf, out );
+			buf.putInt( bytes.length ).put( bytes );
+			}
+		long[] retired = m_retired.toArray();
+		if ( buf.remaining() < 4 )
+			drain( buf, out );
+		buf.putInt( retired.length );
+		putLongs( buf, out, retired, retired.length );
+		putBytes( buf, out, m_status, m_size );
+		putBytes( buf, out, m_type,   m_size );
+		putInts ( buf, out, m_depth,  m_size );
+		putInts ( buf, out, m_host,   m_size );
+		putLongs( buf, out, m_source, m_size );
+		putLongs( buf, out, m_lmdt,   m_size );
+		putLongs( buf, out, m_hash,   m_size );
+		putInts ( buf, out, m_start,  m_size + 1 );
+		putBytes( buf, out, m_arena,  m_start[m_size] );
+		drain( buf, out );
+		}
+
+	/**
+	* Replace the records of this store with those read from the channel.
+	* @throws IOException
+	*/
+	public synchronized void load( FileChannel in )
+		throws IOException
+		{
+		clear();
+		ByteBuffer buf = ByteBuffer.allocateDirect( 1 << 20 );
+		buf.limit(0);
+		fill( buf, in, 16 );
+		m_base = buf.getLong();
+		int size = buf.getInt();
+		int nHosts = buf.getInt();
+		for ( int i = 0; i < nHosts; i++ )
+			{
+			fill( buf, in, 4 );
+			byte[] bytes = new byte[buf.getInt()];
+			fill( buf, in, bytes.length );
+			buf.get( bytes );
+			hostID( new String( bytes, UTF8 ));
+			}
+		fill( buf, in, 4 );
+		long[] retired = new long[buf.getInt()];
+		getLongs( buf, in, retired );
+		for ( long hash : retired )
+			m_retired.add( hash );
+		m_status = new byte[Math.max( INITIAL, size )];
+		m_type   = new byte[m_status.length];
+		m_depth  = new int[m_status.length];
+		m_host   = new int[m_status.length];
+		m_source = new long[m_status.length];
+		m_lmdt   = new long[m_status.length];
+		m_hash   = new long[m_status.length];
+		m_start  = new int[m_status.length + 1];
+		getBytes( buf, in, m_status, size );
+		getBytes( buf, in, m_type,   size );
+		getInts ( buf, in, m_depth,  size );
+		getInts ( buf, in, m_host,   size );
+		getLongs( buf, in, m_source, size );
+		getLongs( buf, in, m_lmdt,   size );
+		getLongs( buf, in, m_hash,   size );
+		getInts ( buf, in, m_start,  size + 1 );
+		m_arena = new byte[Math.max( INITIAL * 64, m_start[size] )];
+		getBytes( buf, in, m_arena, m_start[size] );
+		m_size = size;
+		rehash( Math.max( 2 * INITIAL, 2 * Integer.highestOneBit( 2 * size + 1 )));
+		}
+
+	/**
+	* Set any record left in progress back to waiting.
+	* @return the id of the first waiting record, or end() if none
+	*/
+	public synchronized long resetActive()
+		{
+		long first = -1;
+		for ( int i = 0; i < m_size; i++ )
+			{
+			if ( m_status[i] == WorkRecord.ACTIVE )
+				m_status[i] = WorkRecord.WAITING;
+			if (( first < 0 ) && ( m_status[i] == WorkRecord.WAITING ))
+				first = m_base + i;
+			}
+		return (first < 0) ? m_base + m_size : first;
+		}
+
+	private static void drain( ByteBuffer buf, FileChannel out )
+		throws IOException
+		{
+		buf.flip();
+		while ( buf.hasRemaining())
+			out.write( buf );
+		buf.clear();
+		}
+
+	/**
+	* Make at least n bytes, n no more than the buffer's capacity,
+	* available to get from the buffer.
+	*/
+	private static void fill( ByteBuffer buf, FileChannel in, int n )
+		throws IOException
+		{
+		if ( buf.remaining() >= n )
+			return;
+		buf.compact();
+		while ( buf.position() < n )
+			if ( in.read( buf ) < 0 )
+				throw new IOException( "Checkpoint is truncated" );
+		buf.flip();
+		}
+
+	private static void putBytes( ByteBuffer buf, FileChannel out, byte[] a, int n )
+		throws IOException
+		{
+		for ( int i = 0; i < n; )
+			{
+			if ( !buf.hasRemaining())
+				drain( buf, out );
+			int k = Math.min( n - i, buf.remaining());
+			buf.put( a, i, k );
+			i += k;
+			}
+		}
+
+	private static void putInts( ByteBuffer buf, FileChannel out, int[] a, int n )
+		throws IOException
+		{
+		for ( int i = 0; i < n; )
+			{
+			if ( buf.remaining() < 4 )
+				drain( buf, out );
+			int k = Math.min( n - i, buf.remaining() / 4 );
+			buf.asIntBuffer().put( a, i, k );
+			buf.position( buf.position() + 4 * k );
+			i += k;
+			}
+		}
+
+	private static void putLongs( ByteBuffer buf, FileChannel out, long[] a, int n )
+		throws IOException
+		{
+		for ( int i = 0; i < n; )
+			{
+			if ( buf.remaining() < 8 )
+				drain( buf, out );
+			int k = Math.min( n - i, buf.remaining() / 8 );
+			buf.asLongBuffer().put( a, i, k );
+			buf.position( buf.position() + 8 * k );
+			i += k;
+			}
+		}
+
+	private static void getBytes( ByteBuffer buf, FileChannel in, byte[] a, int n )
+		throws IOException
+		{
+		for ( int i = 0; i < n; )
+			{
+			fill( buf, in, 1 );
+			int k = Math.min( n - i, buf.remaining());
+			buf.get( a, i, k );
+			i += k;
+			}
+		}
+
+	private static void getInts( ByteBuffer buf, FileChannel in, int[] a, int n )
+		throws IOException
+		{
+		for ( int i = 0; i < n; )
+			{
+			fill( buf, in, 4 );
+			int k = Math.min( n - i, buf.remaining() / 4 );
+			buf.asIntBuffer().get( a, i, k );
+			buf.position( buf.position() + 4 * k );
+			i += k;
+			}
+		}
+
+	private static void getLongs( ByteBuffer buf, FileChannel in, long[] a )
+		throws IOException
+		{
+		getLongs( buf, in, a, a.length );
+		}
+
+	private static void getLongs( ByteBuffer buf, FileChannel in, long[] a, int n )
+		throws IOException
+		{
+		for ( int i = 0; i < n; )
+			{
+			fill( buf, in, 8 );
+			int k = Math.min( n - i, buf.remaining() / 8 );
+			buf.asLongBuffer().get( a, i, k );
+			buf.position( buf.position() + 8 * k );
+			i += k;
+			}
+		}
+
+	public synchronized void clear()
+		{
+		m_base = 0;
+		m_size = 0;
+		m_finished = 0;
+		Arrays.fill( m_table, 0 );
+		m_hostIDs.clear();
+		m_hosts.clear();
+		m_retired.clear();
+		}
+	}
@@ -0,0 +1,59 @@
+package com.shanebow.spider.work.ram;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* ResultWriter: A buffered sink for the formatted WorkRecords of a
+* crawl, written to SpiderOptions.resultsFile or, if that is null, to
+* System.out.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.work.WorkException;
+import java.io.*;
+
+public final class ResultWriter
+	{
+	private final Writer  m_out;
+	private final boolean m_isFile;
+
+	/**
+	* @param fileName the file to write, or null for System.out
+	* @param append   true to add to an existing file, e.g. on resume
+	*/
+	public ResultWriter( String fileName, boolean append )
+		throws WorkException
+		{
+		m_isFile = (fileName != null);
+		try
+			{
+			m_out = new BufferedWriter( m_isFile ? new FileWriter( fileName, append )
+			                                     : new OutputStreamWriter( System.out ), 1 << 16 );
+			}
+		catch (IOException e) { throw new WorkException(e); }
+		}
+
+	public synchronized void write( String line )
+		{
+		try
+			{
+			m_out.write( line );
+			m_out.write( '\n' );
+			}
+		catch (IOException e) { System.err.println( "ResultWriter: " + e ); }
+		}
+
+	/**
+	* Flush the buffered results, and close the file if there is one.
+	*/
+	public synchronized void close()
+		{
+		try
+			{
+			m_out.flush();
+			if ( m_isFile )
+				m_out.close();
+			}
+		catch (IOException e) { System.err.println( "ResultWriter: " + e ); }
+		}
+	}
@@ -0,0 +1,99 @@
+package com.shanebow.spider.work.ram;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* StoredWork: A flyweight WorkRecord, a view of one record of a
+* RecordStore. Only the records handed out to workers exist as objects,
+* everything else lives in the store's primitive arrays. The fields are
+* read from the store when asked for, and the url is parsed on demand.
+*
+* A store that retires finished records may drop the row as soon as the
+* record is finished, so just before the view writes a finishing status
+* through it keeps the fields itself, and answers from them from then on.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.work.URLKey;
+import com.shanebow.spider.work.WorkException;
+import com.shanebow.spider.work.WorkRecord;
+
+public class StoredWork extends WorkRecord
+	{
+	private final RecordStore m_store;
+	private URLKey m_key = null; // decoded on demand
+	private boolean m_kept = false; // the fields below are kept, the row may be retired
+	private char m_status;
+	private int  m_depth;
+	private long m_source;
+	private long m_lmdt;
+	private SpiderHook.URLType m_type;
+
+	public StoredWork( RecordStore store, long id )
+		{
+		super( id, NULL_ID, null, WAITING, 0, NULL_ID, NULL_ID, 0 );
+		m_store = store;
+		}
+
+	@Override
+	public int getDepth()
+		{
+		return m_kept ? m_depth : m_store.getDepth(getID());
+		}
+
+	@Override
+	public long getSourceID()
+		{
+		return m_kept ? m_source : m_store.getSource(getID());
+		}
+
+	@Override
+	public char getStatus()
+		{
+		return m_kept ? m_status : m_store.getStatus(getID());
+		}
+
+	@Override
+	public long getLMDT()
+		{
+		return m_kept ? m_lmdt : m_store.getLMDT(getID());
+		}
+
+	@Override
+	public SpiderHook.URLType getType()
+		{
+		return m_kept ? m_type : m_store.getType(getID());
+		}
+
+	@Override
+	public URLKey getKey()
+		{
+		if ( m_key == null )
+			{
+			try { m_key = URLKey.parse( m_store.getURL(getID())); }
+			catch (WorkException e) { throw new IllegalStateException(e); }
+			}
+		return m_key;
+		}
+
+	@Override public void setID(long id) {}
+
+	@Override
+	public void setStatus(char status)
+		throws WorkException
+		{
+		long lmdt = timeNow();
+		if ( !m_kept && m_store.retires() && (status == SUCCESS || status == ERROR))
+			{
+			getKey(); // parse the url while its row is there
+			m_depth = getDepth();
+			m_source = getSourceID();
+			m_type = getType();
+			m_kept = true;
+			}
+		m_status = status;
+		m_lmdt = lmdt;
+		m_store.setStatus( getID(), status, lmdt );
+		}
+	}
@@ -0,0 +1,180 @@
+package com.shanebow.spider.work.seg;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* Segment: A fixed size, memory mapped file of WorkRecords appended one
+* after another. A small header holds the write and read cursors along
+* with the number of records and how many of those are finished. Status
+* changes are written in place, a byte or two per update.
+*
+* Header:  magic(long) write(int) read(int) count(int) done(int)
+* Record:  status(byte) depth(int) idSource(long) lmdt(long)
+*          type(byte) length(short) url bytes
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.work.WorkRecord;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+final class Segment
+	{
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long MAGIC = 0x5342534547303032L; // "SBSEG002"
+	static final int HEADER = 32;
+	private static final int H_WRITE = 8;
+	private static final int H_READ = 12;
+	private static final int H_COUNT = 16;
+	private static final int H_DONE = 20;
+
+	static final int R_STATUS = 0;
+	static final int R_DEPTH  = 1;
+	static final int R_SOURCE = 5;
+	static final int R_LMDT   = 13;
+	static final int R_TYPE   = 21;
+	static final int R_LENGTH = 22;
+	static final int R_URL    = 24;
+
+	/**
+	* The longest url a record holds, in UTF-8 bytes: the length is stored
+	* as an unsigned short.
+	*/
+	static final int MAX_URL = 0xFFFF;
+
+	final int  number;
+	final File file;
+	private final RandomAccessFile m_raf;
+	private final MappedByteBuffer m_buf;
+
+	/**
+	* Map the segment file, formatting it if it is new or recycled.
+	*/
+	Segment( int number, File file, int size, boolean format )
+		throws IOException
+		{
+		this.number = number;
+		this.file = file;
+		m_raf = new RandomAccessFile( file, "rw" );
+		if ( m_raf.length() != size )
+			{
+			m_raf.setLength( size );
+			format = true;
+			}
+		m_buf = m_raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, size );
+		if ( format || m_buf.getLong(0) != MAGIC )
+			{
+			m_buf.putInt( H_WRITE, HEADER );
+			m_buf.putInt( H_READ, HEADER );
+			m_buf.putInt( H_COUNT, 0 );
+			m_buf.putInt( H_DONE, 0 );
+			m_buf.putLong( 0, MAGIC );
+			}
+		}
+
+	int writePos() { return m_buf.getInt(H_WRITE); }
+	int readPos()  { return m_buf.getInt(H_READ); }
+	int count()    { return m_buf.getInt(H_COUNT); }
+	int done()     { return m_buf.getInt(H_DONE); }
+
+	void setReadPos( int offset ) { m_buf.putInt( H_READ, offset ); }
+
+	/**
+	* @return true if every record has been handed out and finished.
+	*/
+	boolean isFinished()
+		{
+		return (readPos() == writePos()) && (done() == count());
+		}
+
+	/**
+	* Append a record.
+	* @return the offset of the record, or -1 if it does not fit
+	* @throws IllegalArgumentException if the url is over MAX_URL bytes,
+	* as its length would be stored truncated, corrupting the segment
+	*/
+	int append( byte[] url, char status, int depth, long idSource, long lmdt,
+	            SpiderHook.URLType type )
+		{
+		if ( url.length > MAX_URL )
+			throw new IllegalArgumentException( "URL of " + url.length + " bytes" );
+		int at = writePos();
+		int end = at + R_URL + url.length;
+		if ( end > m_buf.capacity())
+			return -1;
+		m_buf.put( at + R_STATUS, (byte)status );
+		m_buf.putInt( at + R_DEPTH, depth );
+		m_buf.putLong( at + R_SOURCE, idSource );
+		m_buf.putLong( at + R_LMDT, lmdt );
+		m_buf.put( at + R_TYPE, (byte)type.ordinal());
+		m_buf.putShort( at + R_LENGTH, (short)url.length );
+		for ( int i = 0; i < url.length; i++ )
+			m_buf.put( at + R_URL + i, url[i] );
+		m_buf.putInt( H_COUNT, count() + 1 );
+		if ( isDone(status))
+			m_buf.putInt( H_DONE, done() + 1 );
+		m_buf.putInt( H_WRITE, end ); // last, commits the record
+		return at;
+		}
+
+	/**
+	* @return the offset of the record following the one at offset
+	*/
+	int next( int offset )
+		{
+		return offset + R_URL + (m_buf.getShort(offset + R_LENGTH) & 0xFFFF);
+		}
+
+	char getStatus( int offset ) { return (char)m_buf.get( offset + R_STATUS ); }
+	int  getDepth( int offset )  { return m_buf.getInt( offset + R_DEPTH ); }
+	long getSource( int offset ) { return m_buf.getLong( offset + R_SOURCE ); }
+	long getLMDT( int offset )   { return m_buf.getLong( offset + R_LMDT ); }
+	SpiderHook.URLType getType( int offset )
+		{
+		return SpiderHook.URLType.values()[m_buf.get( offset + R_TYPE )];
+		}
+
+	String getURL( int offset )
+		{
+		byte[] url = new byte[m_buf.getShort(offset + R_LENGTH) & 0xFFFF];
+		for ( int i = 0; i < url.length; i++ )
+			url[i] = m_buf.get( offset + R_URL + i );
+		return new String( url, UTF8 );
+		}
+
+	/**
+	* Update the status and time of the record in place.
+	* @return true if this update finished the record
+	*/
+	boolean setStatus( int offset, char status, long lmdt )
+		{
+		boolean wasDone = isDone( getStatus(offset));
+		m_buf.putLong( offset + R_LMDT, lmdt );
+		m_buf.put( offset + R_STATUS, (byte)status );
+		if ( isDone(status) && !wasDone )
+			{
+			m_buf.putInt( H_DONE, done() + 1 );
+			return true;
+			}
+		return false;
+		}
+
+	static boolean isDone( char status )
+		{
+		return (status == WorkRecord.SUCCESS) || (status == WorkRecord.ERROR);
+		}
+
+	void force() { m_buf.force(); }
+
+	void close()
+		{
+		force();
+		try { m_raf.close(); }
+		catch (IOException e) {}
+		}
+	}
@@ -0,0 +1,349 @@
+package com.shanebow.spider.work.seg;
+/**
+* Copyright (c) 2010 by Richard T. Salamone, Jr.  All rights reserved.
+*
+* SegmentWorkload: A durable workload that needs no database server.
+* WorkRecords are appended to fixed size, memory mapped Segment files in
+* SpiderOptions.workDirectory; the read and write cursors live in each
+* segment's header and status changes are written in place. Because the
+* data lives in mapped files it survives a crash of the spider: on
+* restart any record that was in progress is reset to waiting and the
+* crawl resumes where it left off. Call clear() to start afresh.
+*
+* A segment whose records have all been handed out and finished is
+* recycled as the next segment to be written. Seen urls are kept in a
+* persistent SeenSet alongside the segments, so recycling does not
+* forget them.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.Spider;
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.SpiderOptions;
+import com.shanebow.spider.work.*;
+import com.shanebow.spider.work.bloom.SeenSet;
+import com.shanebow.util.SBLog;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+public class SegmentWorkload
+	implements Workload
+	{
+	public static final String MODULE="SegmentWork";
+	public static final String DIR_SEGMENTS = "segments";
+	private static final String PREFIX_SEGMENT = "seg-";
+	private static final String PREFIX_FREE = "free-";
+	private static final String SUFFIX = ".log";
+
+	private void log( String format, Object... args )
+		{
+		SBLog.write( MODULE, String.format(format, args ));
+		}
+
+	/**
+	* A WorkRecord that writes its status changes back to its segment.
+	*/
+	private final class SegWork extends WorkRecord
+		{
+		private final Segment m_segment;
+		private final int     m_offset;
+
+		SegWork( Segment segment, int offset, URLKey url )
+			{
+			super( id(segment, offset), WorkRecord.NULL_ID, url, segment.getStatus(offset),
+			       segment.getDepth(offset), segment.getSource(offset),
+			       WorkRecord.NULL_ID, segment.getLMDT(offset));
+			m_segment = segment;
+			m_offset = offset;
+			setType( segment.getType(offset));
+			}
+
+		@Override
+		public void setStatus(char status)
+			throws WorkException
+			{
+			super.setStatus(status);
+			updated( m_segment, m_offset, status, getLMDT());
+			}
+		}
+
+	private Spider  m_spider;
+	private File    m_dir;
+	private int     m_segmentSize;
+	private SeenSet m_seen = null;
+	private TreeMap<Integer,Segment> m_segments = null; // by number
+	private List<File> m_free = null; // recycled segment files
+	private Segment m_reading; // segment of the read cursor
+	private Segment m_writing; // segment being appended to
+	private long    m_waiting = 0;
+
+	/**
+	* Setup this workload for use by the specified spider, resuming the
+	* work left in the segment files of a previous run.
+	* @param spider The spider using this workload.
+	* @throws WorkException if there is an initialization error
+	*/
+	public void init(Spider spider)
+		throws WorkException
+		{
+		m_spider = spider;
+		if ( m_segments != null )
+			throw new WorkException( "Trying to reinitialize existing workload" );
+		WorkRecord._maxLengthURL = Short.MAX_VALUE;
+		SpiderOptions opts = spider.getOptions();
+		m_segmentSize = opts.segmentSize;
+		m_dir = new File( opts.workDirectory, DIR_SEGMENTS );
+		if ( !m_dir.isDirectory() && !m_dir.mkdirs())
+			throw new WorkException( "Cannot create " + m_dir );
+		open( false );
+		log( "initialized: %d segments, %d waiting", m_segments.size(), m_waiting );
+		}
+
+	private void open( boolean fresh )
+		throws WorkException
+		{
+		SpiderOptions opts = m_spider.getOptions();
+		m_seen = new SeenSet( m_dir, opts.seenExpectedURLs, opts.seenFalsePositiveRate, fresh );
+		m_segments = new TreeMap<Integer,Segment>();
+		m_free = new ArrayList<File>();
+		m_waiting = 0;
+		File[] files = m_dir.listFiles();
+		Arrays.sort( files );
+		try
+			{
+			for ( File file : files )
+				{
+				String name = file.getName();
+				if ( !name.endsWith(SUFFIX))
+					continue;
+				if ( fresh )
+					file.delete();
+				else if ( name.startsWith(PREFIX_FREE))
+					m_free.add( file );
+				else if ( name.startsWith(PREFIX_SEGMENT))
+					{
+					int number = Integer.parseInt( name.substring(
+					               PREFIX_SEGMENT.length(), name.length() - SUFFIX.length()));
+					Segment segment = new Segment( number, file, m_segmentSize, false );
+					m_segments.put( number, segment );
+					recover( segment );
+					}
+				}
+			if ( m_segments.isEmpty())
+				newSegment();
+			}
+		catch (IOException e) { throw new WorkException(e); }
+		m_writing = m_segments.lastEntry().getValue();
+		for ( Segment segment : new ArrayList<Segment>( m_segments.values()))
+			if ( segment != m_writing && segment.isFinished())
+				recycle( segment );
+		m_reading = m_segments.firstEntry().getValue();
+		}
+
+	/**
+	* Reset records left in progress by a previous run to waiting and
+	* move the read cursor back to the first waiting record.
+	*/
+	private void recover( Segment segment )
+		{
+		int first = -1;
+		for ( int at = Segment.HEADER; at < segment.writePos(); at = segment.next(at))
+			{
+			char status = segment.getStatus(at);
+			if ( status == WorkRecord.ACTIVE )
+				segment.setStatus( at, status = WorkRecord.WAITING, segment.getLMDT(at));
+			if ( status == WorkRecord.WAITING )
+				{
+				++m_waiting;
+				if ( first == -1 )
+					first = at;
+				}
+			}
+		segment.setReadPos(( first == -1 ) ? segment.writePos() : first );
+		}
+
+	private File segmentFile( int number )
+		{
+		return new File( m_dir, String.format( "%s%08d%s", PREFIX_SEGMENT, number, SUFFIX ));
+		}
+
+	/**
+	* Start a new segment to append to, reusing a recycled file if any.
+	*/
+	private Segment newSegment()
+		throws IOException
+		{
+		int number = m_segments.isEmpty() ? 0 : m_segments.lastKey() + 1;
+		File file = segmentFile( number );
+		if ( !m_free.isEmpty() && !m_free.remove(0).renameTo( file ))
+			throw new IOException( "Cannot recycle segment as " + file );
+		Segment segment = new Segment( number, file, m_segmentSize, true );
+		m_segments.put( number, segment );
+		m_writing = segment;
+		return segment;
+		}
+
+	private void recycle( Segment segment )
+		{
+		m_segments.remove( segment.number );
+		segment.close();
+		File free = new File( m_dir, String.format( "%s%08d%s",
+		                              PREFIX_FREE, segment.number, SUFFIX ));
+		if ( segment.file.renameTo( free ))
+			m_free.add( free );
+		else segment.file.delete();
+		}
+
+	private static long id( Segment segment, int offset )
+		{
+		return ((long)segment.number << 32) | offset;
+		}
+
+	/**
+	* Clear the workload, deleting all the segments.
+	* @throws WorkException if error precludes clearing the workload.
+	*/
+	public synchronized void clear()
+		throws WorkException
+		{
+		for ( Segment segment : m_segments.values())
+			segment.close();
+		m_seen.close();
+		open( true );
+		}
+
+	/**
+	* @return true if there is no more work to do now.
+	* @throws WorkException if cannot determine whether empty workload
+	*/
+	public synchronized boolean isEmpty()
+		throws WorkException
+		{
+		return m_waiting == 0;
+		}
+
+	/**
+	* Add the specified URL to the workload.
+	* @param  url    The URL to be added.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add( String url )
+		throws WorkException
+		{
+		return add( URLKey.of(WorkRecord.toURL(url)), null, WorkRecord.WAITING );
+		}
+
+	/**
+	* Add the specified URL, found by a hyperlink, to the workload.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add(URLKey url, WorkRecord source, char status )
+		throws WorkException
+		{
+		return add( url, source, status, SpiderHook.URLType.HYPERLINK );
+		}
+
+	/**
+	* Append the specified URL to the current segment.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @param  type   How the URL was found, kept with the record.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public synchronized boolean add(URLKey url, WorkRecord source, char status,
+	                                SpiderHook.URLType type )
+		throws WorkException
+		{
+		String text = url.toString();
+		if (( text.length() > Segment.MAX_URL / 3 ) // up to 3 UTF-8 bytes a char
+		&&  ( text.getBytes( Segment.UTF8 ).length > Segment.MAX_URL ))
+			throw new WorkException( "URL is too long, must be <= "
+			                         + Segment.MAX_URL + " UTF-8 bytes" );
+		if ( !m_seen.add(url))
+			return false;
+		byte[] bytes = text.getBytes( Segment.UTF8 );
+		int depth = (source == null) ? 0 : source.getDepth() + 1;
+		long idSource = (source == null) ? WorkRecord.NULL_ID : source.getID();
+		long now = WorkRecord.timeNow();
+		if ( m_writing.append( bytes, status, depth, idSource, now, type ) < 0 )
+			{
+			try { newSegment(); }
+			catch (IOException e) { throw new WorkException(e); }
+			if ( m_writing.append( bytes, status, depth, idSource, now, type ) < 0 )
+				throw new WorkException( "URL does not fit in a segment: " + url );
+			}
+		if ( status == WorkRecord.WAITING )
+			++m_waiting;
+		return true;
+		}
+
+	/**
+	* Get the next waiting URL after the read cursor. The URL returned
+	* is marked as in progress.
+	* @return The next URL to parse, or null if none are waiting
+	* @throws WorkException if the next URL could not be obtained.
+	*/
+	public synchronized WorkRecord getWork() throws WorkException
+		{
+		Segment segment = m_reading;
+		while ( true )
+			{
+			for ( int at = segment.readPos(); at < segment.writePos(); )
+				{
+				char status = segment.getStatus(at);
+				int next = segment.next(at);
+				segment.setReadPos( next );
+				if ( status == WorkRecord.WAITING )
+					{
+					--m_waiting;
+					WorkRecord wr = new SegWork( segment, at,
+					                             URLKey.parse(segment.getURL(at)));
+					wr.setStatus( WorkRecord.ACTIVE );
+					return wr;
+					}
+				at = next;
+				}
+			if ( segment == m_writing )
+				return null;
+			Integer later = m_segments.higherKey( segment.number );
+			if ( segment.isFinished())
+				recycle( segment );
+			segment = m_reading = m_segments.get( later );
+			}
+		}
+
+	/**
+	* Called when a record changes status, recycles its segment when that
+	* finishes the last of the segment's records.
+	*/
+	private synchronized void updated( Segment segment, int offset, char status, long lmdt )
+		{
+		if ( m_segments.get( segment.number ) != segment )
+			return; // already recycled, the record was finished
+		if ( segment.setStatus( offset, status, lmdt )
+		&&   segment != m_writing && segment != m_reading
+		&&   segment.isFinished())
+			recycle( segment );
+		}
+
+	public synchronized void shutdown()
+		{
+		log( "shutdown: %d segments, %d waiting, seen %s",
+		     m_segments.size(), m_waiting, m_seen.getStats());
+		for ( Segment segment : m_segments.values())
+			segment.close();
+		m_seen.close();
+		}
+	}
@@ -0,0 +1,279 @@
+package com.shanebow.spider.work.sql;
+/**
+* Copyright 2010 by Richard T. Salamone, Jr.
+*
+* ConnectionPool: A bounded pool of database connections, each with its
+* own StatementCache. A connection is checked out for the life of one
+* WorkDatabase object; when none is idle and the pool is at its size the
+* caller waits, up to dbPoolTimeout ms. Connections that have sat idle
+* are validated before reuse, and closed once idle for dbIdleTimeout ms.
+* A new connection is made, and an idle one validated, outside the
+* pool's lock, so a slow database holds up only the caller concerned.
+*
+* The pool keeps statistics of the waits for a connection and of how
+* busy its connections are, to help size dbPoolSize against the
+* spider's maximumPoolSize.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.SpiderOptions;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+final class ConnectionPool
+	{
+	private static final long VALIDATE_AFTER = 5000; // ms idle before validation
+	private static final int  VALIDATE_TIMEOUT = 2;  // seconds
+
+	/**
+	* An idle connection, with when it was returned to the pool.
+	*/
+	private static final class Idle
+		{
+		final StatementCache cache;
+		final long since;
+		Idle( StatementCache cache, long since ) { this.cache = cache; this.since = since; }
+		}
+
+	private final SpiderOptions m_opts;
+	private final java.util.Properties m_props; // driver properties
+	private final int  m_maxSize;
+	private final long m_timeout;
+	private final long m_idleTimeout;
+	private final ReentrantLock m_lock = new ReentrantLock();
+	private final Condition m_available = m_lock.newCondition();
+	private final ArrayDeque<Idle> m_idle = new ArrayDeque<Idle>(); // most recent first
+	private final Timer m_evictor;
+	private int m_size = 0; // connections open, idle or in use, or being made
+	private boolean m_closed = false;
+
+	// statistics
+	private final long m_created = System.nanoTime();
+	private long m_borrows = 0;
+	private long m_waits = 0;       // borrows that had to wait
+	private long m_waitNanos = 0;
+	private long m_maxWaitNanos = 0;
+	private long m_busyNanos = 0;   // total connection time checked out
+	private int  m_inUse = 0;
+	private int  m_peakInUse = 0;
+	private long m_evicted = 0;     // closed as idle or invalid
+
+	ConnectionPool( SpiderOptions opts, Dialect dialect )
+		{
+		m_opts = opts;
+		m_props = dialect.connectionProperties();
+		if ( opts.dbUID != null ) m_props.setProperty( "user", opts.dbUID );
+		if ( opts.dbPWD != null ) m_props.setProperty( "password", opts.dbPWD );
+		m_maxSize = Math.max( 1, opts.dbPoolSize );
+		m_timeout = opts.dbPoolTimeout;
+		m_idleTimeout = opts.dbIdleTimeout;
+		m_evictor = new Timer( "ConnectionPool", true );
+		if ( m_idleTimeout > 0 )
+			m_evictor.schedule( new TimerTask()
+				{
+				public void run() { evictIdle(); }
+				}, m_idleTimeout, Math.max( 1000, m_idleTimeout / 2 ));
+		}
+
+	/**
+	* Check out a connection, waiting if the pool is exhausted.
+	* @throws SQLException if no connection is available within the
+	* timeout or a new connection cannot be made
+	*/
+	StatementCache borrow()
+		throws SQLException
+		{
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos( m_timeout );
+		boolean waited = false;
+		while ( true )
+			{
+			Idle idle;
+			m_lock.lock();
+			try // take an idle connection, or the room for a new one
+				{
+				while (( idle = m_idle.pollFirst()) == null && m_size >= m_maxSize )
+					{
+					long remaining = deadline - System.nanoTime();
+					if ( remaining <= 0 )
+						throw new SQLException( "No connection available in " + m_timeout
+						                      + "ms; " + getStats());
+					waited = true;
+					try { m_available.awaitNanos( remaining ); }
+					catch (InterruptedException e)
+						{
+						Thread.currentThread().interrupt();
+						throw new SQLException( "Interrupted waiting for a connection" );
+						}
+					}
+				if ( idle == null )
+					++m_size;
+				}
+			finally { m_lock.unlock(); }
+
+			if ( idle == null )
+				{
+				try { return checkedOut( connect(), start, waited ); }
+				catch (SQLException e) { dropped( false ); throw e; }
+				}
+			if ( isValid( idle ))
+				return checkedOut( idle.cache, start, waited );
+			dropped( true );
+			}
+		}
+
+	/**
+	* Give up the room of a connection that was not made, or that has been
+	* closed as invalid, letting a waiting caller make one.
+	*/
+	private void dropped( boolean evicted )
+		{
+		m_lock.lock();
+		try
+			{
+			--m_size;
+			if ( evicted )
+				++m_evicted;
+			m_available.signal();
+			}
+		finally { m_lock.unlock(); }
+		}
+
+	private StatementCache checkedOut( StatementCache cache, long start, boolean waited )
+		{
+		long now = System.nanoTime();
+		long wait = now - start;
+		m_lock.lock();
+		try
+			{
+			++m_borrows;
+			if ( waited )
+				++m_waits;
+			m_waitNanos += wait;
+			if ( wait > m_maxWaitNanos )
+				m_maxWaitNanos = wait;
+			if ( ++m_inUse > m_peakInUse )
+				m_peakInUse = m_inUse;
+			}
+		finally { m_lock.unlock(); }
+		cache.checkedOutAt = now;
+		return cache;
+		}
+
+	/**
+	* Check in a connection. Once the pool is closed the connection is
+	* closed instead.
+	*/
+	void release( StatementCache cache )
+		{
+		boolean closed;
+		m_lock.lock();
+		try
+			{
+			--m_inUse;
+			m_busyNanos += System.nanoTime() - cache.checkedOutAt;
+			closed = m_closed;
+			if ( closed )
+				--m_size;
+			else m_idle.addFirst( new Idle( cache, System.currentTimeMillis()));
+			m_available.signal();
+			}
+		finally { m_lock.unlock(); }
+		if ( closed )
+			cache.close();
+		}
+
+	private StatementCache connect()
+		throws SQLException
+		{
+		Connection connection = DriverManager.getConnection( m_opts.dbURL, m_props );
+		connection.setAutoCommit(true);
+		return new StatementCache( connection );
+		}
+
+	/**
+	* Validate a connection that has sat idle for a while; an invalid
+	* connection is closed.
+	*/
+	private boolean isValid( Idle idle )
+		{
+		if ( System.currentTimeMillis() - idle.since < VALIDATE_AFTER )
+			return true;
+		try
+			{
+			if ( idle.cache.getConnection().isValid( VALIDATE_TIMEOUT ))
+				return true;
+			}
+		catch (SQLException e) {}
+		idle.cache.close();
+		return false;
+		}
+
+	/**
+	* Close the connections that have been idle longer than dbIdleTimeout,
+	* but always keep one.
+	*/
+	private void evictIdle()
+		{
+		long cutoff = System.currentTimeMillis() - m_idleTimeout;
+		m_lock.lock();
+		try
+			{
+			for ( Iterator<Idle> it = m_idle.descendingIterator(); it.hasNext(); )
+				{
+				Idle idle = it.next();
+				if ( idle.since > cutoff || m_size <= 1 )
+					break;
+				it.remove();
+				idle.cache.close();
+				--m_size;
+				++m_evicted;
+				}
+			}
+		finally { m_lock.unlock(); }
+		}
+
+	/**
+	* @return a summary of the pool's size, waits and utilization.
+	*/
+	String getStats()
+		{
+		m_lock.lock();
+		try
+			{
+			double elapsed = System.nanoTime() - m_created;
+			return String.format( "pool %d/%d open, %d in use (peak %d), %d borrows,"
+			   + " %d waited (avg %.2fms, max %.2fms), utilization %.1f%%, %d evicted",
+			   m_size, m_maxSize, m_inUse, m_peakInUse, m_borrows, m_waits,
+			   (m_borrows == 0) ? 0.0 : m_waitNanos / 1e6 / m_borrows, m_maxWaitNanos / 1e6,
+			   100.0 * m_busyNanos / (elapsed * m_maxSize), m_evicted );
+			}
+		finally { m_lock.unlock(); }
+		}
+
+	/**
+	* Close the idle connections and stop evicting. Connections still
+	* checked out are closed as they are returned.
+	*/
+	void close()
+		{
+		m_evictor.cancel();
+		m_lock.lock();
+		try
+			{
+			m_closed = true;
+			for ( Idle idle : m_idle )
+				idle.cache.close();
+			m_size -= m_idle.size();
+			m_idle.clear();
+			}
+		finally { m_lock.unlock(); }
+		}
+	}
@@ -0,0 +1,141 @@
+package com.shanebow.spider.work.sql;
+/**
+* Copyright 2010 by Richard T. Salamone, Jr.
+*
+* Dialect: The SQL that differs from one database to another. The dialect
+* is taken from the dbDialect option, or failing that, recognized from
+* the JDBC url.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+enum Dialect
+	{
+	H2, DERBY, MYSQL, ORACLE, POSTGRESQL, GENERIC;
+
+	/**
+	* @return the dialect named, or if name is null, the dialect of the
+	* database at the JDBC url.
+	*/
+	static Dialect of( String name, String dbURL )
+		{
+		if ( name != null )
+			return valueOf( name.trim().toUpperCase());
+		String url = (dbURL == null) ? "" : dbURL.toLowerCase();
+		if ( url.startsWith( "jdbc:h2:" ))         return H2;
+		if ( url.startsWith( "jdbc:derby:" ))      return DERBY;
+		if ( url.startsWith( "jdbc:mysql:" )
+		||   url.startsWith( "jdbc:mariadb:" ))    return MYSQL;
+		if ( url.startsWith( "jdbc:oracle:" ))     return ORACLE;
+		if ( url.startsWith( "jdbc:postgresql:" )) return POSTGRESQL;
+		return GENERIC;
+		}
+
+	/**
+	* @return the column definition of an auto generated BIGINT key
+	*/
+	String identity()
+		{
+		return (this == MYSQL) ? "BIGINT AUTO_INCREMENT PRIMARY KEY"
+		                       : "BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY";
+		}
+
+	/**
+	* @return the driver connection properties that speed up batches of
+	* inserts and updates, e.g. by rewriting them as multi-row statements.
+	* A rewritten batch may report Statement.SUCCESS_NO_INFO rather than
+	* each row's update count, so callers of executeBatch must not take it
+	* for a count.
+	*/
+	java.util.Properties connectionProperties()
+		{
+		java.util.Properties props = new java.util.Properties();
+		switch ( this )
+			{
+			case MYSQL:      props.setProperty( "rewriteBatchedStatements", "true" ); break;
+			case POSTGRESQL: props.setProperty( "reWriteBatchedInserts", "true" ); break;
+			}
+		return props;
+		}
+
+	/**
+	* Build an insert of one row that does nothing, and reports an update
+	* count of zero, when a row with the same key is already in the table.
+	* The key must have a unique index, and be one of the columns.
+	* @param table   the table name
+	* @param columns the names of the columns, in parameter order
+	* @param types   the SQL types of the columns
+	* @param key     the name of the unique key column
+	* @return the SQL, with one parameter per column
+	*/
+	String insertIfAbsent( String table, String[] columns, String[] types, String key )
+		{
+		String names = join( columns, "", "" );
+		switch ( this )
+			{
+			case MYSQL:
+				return "INSERT IGNORE INTO " + table + " (" + names + ")"
+				     + " VALUES(" + params( columns.length ) + ")";
+
+			case POSTGRESQL:
+				return "INSERT INTO " + table + " (" + names + ")"
+				     + " VALUES(" + params( columns.length ) + ")"
+				     + " ON CONFLICT (" + key + ") DO NOTHING";
+
+			case H2:
+				return "MERGE INTO " + table + " t USING (VALUES(" + casts( columns, types )
+				     + ")) s(" + names + ") ON t." + key + " = s." + key
+				     + " WHEN NOT MATCHED THEN INSERT (" + names + ")"
+				     + " VALUES(" + join( columns, "s.", "" ) + ")";
+
+			default: // a one row derived table, guarded by NOT EXISTS
+				StringBuilder select = new StringBuilder( "SELECT " );
+				for ( int i = 0; i < columns.length; i++ )
+					select.append((i == 0) ? "" : ",").append( "CAST(? AS " )
+					      .append( types[i] ).append( ") AS " ).append( columns[i] );
+				select.append( oneRow());
+				return "INSERT INTO " + table + " (" + names + ")"
+				     + " SELECT " + join( columns, "s.", "" ) + " FROM (" + select + ") s"
+				     + " WHERE NOT EXISTS (SELECT 1 FROM " + table
+				     + " t WHERE t." + key + " = s." + key + ")";
+			}
+		}
+
+	/**
+	* @return the FROM clause, if any, needed to select a single row
+	* of literals.
+	*/
+	String oneRow()
+		{
+		switch ( this )
+			{
+			case DERBY:  return " FROM SYSIBM.SYSDUMMY1";
+			case ORACLE: return " FROM DUAL";
+			default:     return "";
+			}
+		}
+
+	private static String params( int count )
+		{
+		StringBuilder it = new StringBuilder( "?" );
+		for ( int i = 1; i < count; i++ )
+			it.append( ",?" );
+		return it.toString();
+		}
+
+	private static String casts( String[] columns, String[] types )
+		{
+		StringBuilder it = new StringBuilder();
+		for ( int i = 0; i < columns.length; i++ )
+			it.append((i == 0) ? "" : ",").append( "CAST(? AS " ).append( types[i] ).append( ')' );
+		return it.toString();
+		}
+
+	private static String join( String[] columns, String prefix, String suffix )
+		{
+		StringBuilder it = new StringBuilder();
+		for ( int i = 0; i < columns.length; i++ )
+			it.append((i == 0) ? "" : ",").append( prefix ).append( columns[i] ).append( suffix );
+		return it.toString();
+		}
+	}
@@ -0,0 +1,107 @@
+package com.shanebow.spider.work.sql;
+/**
+* Copyright 2010 by Richard T. Salamone, Jr.
+*
+* ErrorWriter: Inserts the errors logged by a SQLWorkload into TBL_ERROR
+* from a background thread. Errors wait in a queue bounded by
+* sqlErrorQueueSize and are inserted in batches of up to sqlBatchSize.
+* When the queue is full, as on a burst of errors from a broken site,
+* further errors are counted and dropped rather than making the worker
+* threads wait.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.SpiderOptions;
+import com.shanebow.util.SBLog;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class ErrorWriter
+	implements Runnable
+	{
+	private static final int MAX_MESSAGE = 1000; // chars kept of a message
+
+	static final String INSERT_ERROR
+		= "INSERT INTO " + SQLWorkload.TBL_ERROR
+		+ " (idWork,url,idSource,severity,message,lmdt) VALUES(?,?,?,?,?,?)";
+
+	private final BlockingQueue<Object[]> m_queue;
+	private final int m_batchSize;
+	private final Thread m_thread;
+	private volatile boolean m_running = true;
+	private final AtomicLong m_dropped = new AtomicLong();
+	private long m_written = 0;
+
+	ErrorWriter( SpiderOptions opts )
+		{
+		m_queue = new ArrayBlockingQueue<Object[]>( Math.max( 1, opts.sqlErrorQueueSize ));
+		m_batchSize = Math.max( 1, opts.sqlBatchSize );
+		m_thread = new Thread( this, "ErrorWriter" );
+		m_thread.setDaemon( true );
+		m_thread.start();
+		}
+
+	/**
+	* Queue an error for insertion, or drop it if the queue is full.
+	*/
+	void enqueue( long idWork, String url, long idSource, String severity,
+	              String message, long lmdt )
+		{
+		if ( message != null && message.length() > MAX_MESSAGE )
+			message = message.substring( 0, MAX_MESSAGE );
+		if ( !m_queue.offer( new Object[] { idWork, url, idSource, severity, message, lmdt }))
+			m_dropped.incrementAndGet();
+		}
+
+	public void run()
+		{
+		List<Object[]> rows = new ArrayList<Object[]>( m_batchSize );
+		while ( m_running || !m_queue.isEmpty())
+			{
+			try
+				{
+				Object[] row = m_queue.poll( 500, TimeUnit.MILLISECONDS );
+				if ( row == null )
+					continue;
+				rows.add( row );
+				m_queue.drainTo( rows, m_batchSize - 1 );
+				write( rows );
+				rows.clear();
+				}
+			catch (InterruptedException e) {}
+			}
+		}
+
+	private void write( List<Object[]> rows )
+		{
+		WorkDatabase db = null;
+		try
+			{
+			db = new WorkDatabase();
+			db.executeBatch( INSERT_ERROR, rows );
+			m_written += rows.size();
+			}
+		catch (Exception e)
+			{
+			SBLog.write( SQLWorkload.MODULE, "error log insert failed: " + e );
+			}
+		finally { if ( db != null ) db.closeStatement(); }
+		}
+
+	/**
+	* Stop the background thread once everything queued is written.
+	*/
+	void close()
+		{
+		m_running = false;
+		try { m_thread.join(); }
+		catch (InterruptedException e) {}
+		SBLog.write( SQLWorkload.MODULE, String.format(
+		             "ErrorWriter: %d errors written, %d dropped", m_written, m_dropped.get()));
+		}
+	}
@@ -0,0 +1,155 @@
+package com.shanebow.spider.work.sql;
+/**
+* Copyright 2010 by Richard T. Salamone, Jr.
+*
+* InsertBuffer: Write behind buffer for the urls added to a SQLWorkload.
+* Rather than a SELECT and an INSERT round trip per link, new urls are
+* collected in memory, deduplicated there, and flushed when the buffer
+* reaches sqlBatchSize urls or has waited sqlFlushInterval ms as a single
+* JDBC batch of insert if absent statements.
+*
+* A bounded set of the most recently added urls screens out the links,
+* such as navigation, that appear on page after page.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.SpiderHook;
+import com.shanebow.spider.SpiderOptions;
+import com.shanebow.spider.work.URLKey;
+import com.shanebow.spider.work.WorkException;
+import com.shanebow.spider.work.WorkRecord;
+import com.shanebow.util.SBLog;
+import java.util.*;
+
+final class InsertBuffer
+	{
+	/**
+	* A url waiting to be inserted.
+	*/
+	private static final class Pending
+		{
+		final URLKey url;
+		final char   status;
+		final int    depth;
+		final long   idSource;
+		final long   lmdt;
+		final SpiderHook.URLType type;
+
+		Pending( URLKey url, char status, int depth, long idSource, long lmdt,
+		         SpiderHook.URLType type )
+			{
+			this.url = url;
+			this.status = status;
+			this.depth = depth;
+			this.idSource = idSource;
+			this.lmdt = lmdt;
+			this.type = type;
+			}
+		}
+
+	private final SQLWorkload m_workload;
+	private final int m_batchSize;
+	private final Map<URLKey,Pending> m_pending = new LinkedHashMap<URLKey,Pending>();
+	private final Map<URLKey,Boolean> m_recent;
+	private final Timer m_timer;
+	private long m_flushed = 0;
+	private long m_inserted = 0;
+	private long m_unknown = 0; // rewritten batches report SUCCESS_NO_INFO
+
+	InsertBuffer( SQLWorkload workload, SpiderOptions opts )
+		{
+		m_workload = workload;
+		m_batchSize = opts.sqlBatchSize;
+		final int recent = opts.sqlRecentURLs;
+		m_recent = new LinkedHashMap<URLKey,Boolean>( 1024, 0.75f, true )
+			{
+			protected boolean removeEldestEntry( Map.Entry<URLKey,Boolean> eldest )
+				{
+				return size() > recent;
+				}
+			};
+		m_timer = new Timer( "InsertBuffer", true );
+		m_timer.schedule( new TimerTask()
+			{
+			public void run()
+				{
+				try { flush(); }
+				catch (WorkException e) { SBLog.write( SQLWorkload.MODULE, "flush failed: " + e ); }
+				}
+			}, opts.sqlFlushInterval, opts.sqlFlushInterval );
+		}
+
+	/**
+	* Buffer the url for insertion.
+	* @return false if the url is known to be in the workload already
+	* @throws WorkException if a flush fails
+	*/
+	synchronized boolean add( URLKey url, WorkRecord source, char status,
+	                          SpiderHook.URLType type )
+		throws WorkException
+		{
+		if ( m_recent.put( url, Boolean.TRUE ) != null )
+			return false;
+		int depth = (source == null) ? 0 : source.getDepth() + 1;
+		long idSource = (source == null) ? WorkRecord.NULL_ID : source.getID();
+		m_pending.put( url, new Pending( url, status, depth, idSource,
+		                                  WorkRecord.timeNow(), type ));
+		if ( m_pending.size() >= m_batchSize )
+			flush();
+		return true;
+		}
+
+	synchronized boolean isEmpty() { return m_pending.isEmpty(); }
+
+	/**
+	* Insert the buffered urls; those already in the database are ignored.
+	* The urls stay buffered until the batch succeeds, so after a failure
+	* the next flush retries them: the insert skips any that made it in.
+	* @throws WorkException on database error
+	*/
+	synchronized void flush()
+		throws WorkException
+		{
+		if ( m_pending.isEmpty())
+			return;
+		List<Pending> batch = new ArrayList<Pending>( m_pending.values());
+		WorkDatabase db = null;
+		try
+			{
+			List<URLKey> urls = new ArrayList<URLKey>( batch.size());
+			for ( Pending p : batch )
+				urls.add( p.url );
+			Map<String,Long> hosts = m_workload.getHostIDs( urls );
+			List<Object[]> rows = new ArrayList<Object[]>( batch.size());
+			for ( Pending p : batch )
+				rows.add( new Object[] { hosts.get( SQLWorkload.hostName(p.url)), p.url.toString(), p.status,
+				          p.depth, p.idSource, m_workload.getParserID(), p.lmdt,
+				          SQLWorkload.computeHash(p.url), p.type.name() });
+			db = new WorkDatabase();
+			int[] counts = db.executeBatch( m_workload.getInsert(), rows );
+			m_pending.clear();
+			m_flushed += batch.size();
+			for ( int count : counts )
+				if ( count == java.sql.Statement.SUCCESS_NO_INFO )
+					++m_unknown;
+				else if ( count > 0 )
+					++m_inserted;
+			}
+		catch ( Exception ex ) { throw new WorkException(ex); }
+		finally { if ( db != null ) db.closeStatement(); }
+		}
+
+	/**
+	* Flush any buffered urls and stop the flush timer.
+	*/
+	void close()
+		throws WorkException
+		{
+		m_timer.cancel();
+		flush();
+		SBLog.write( SQLWorkload.MODULE, String.format(
+		             "InsertBuffer: %d urls flushed, %d inserted, %d not reported by the driver",
+		             m_flushed, m_inserted, m_unknown ));
+		}
+	}
@@ -0,0 +1,153 @@
+package com.shanebow.spider.work.sql;
+/**
+* Copyright 2010 by Richard T. Salamone, Jr.
+*
+* NameTable: A table of names, such as hosts or parsers, keyed by a
+* generated id that the workload table refers to. The table needs an
+* auto generated id column and a unique index on name:
+*
+*   CREATE TABLE spiderHost (id BIGINT AUTO_INCREMENT PRIMARY KEY,
+*                            name VARCHAR(255) NOT NULL UNIQUE)
+*
+* The ids are cached in memory, names are never removed, so each name
+* costs a database round trip only the first time it is seen by this
+* process. Names not yet cached are created as a batch. The database may
+* compare names without regard to case, and then a name is given the id
+* of the row that it matches in any case.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.work.WorkException;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class NameTable
+	{
+	private static final int CHUNK = 32; // names per id query
+
+	private final String m_table;
+	private final String m_insert;
+	private final String m_selectIDs;
+	private final Map<String,Long> m_ids = new ConcurrentHashMap<String,Long>();
+
+	NameTable( String table, Dialect dialect )
+		{
+		m_table = table;
+		m_insert = dialect.insertIfAbsent( table, new String[] { "name" },
+		                                   new String[] { "VARCHAR(255)" }, "name" );
+		StringBuilder sql = new StringBuilder( "SELECT id,name FROM " + table + " WHERE name IN (?" );
+		for ( int i = 1; i < CHUNK; i++ )
+			sql.append( ",?" );
+		m_selectIDs = sql.append( ')' ).toString();
+		}
+
+	/**
+	* @return the id of the name, creating it if need be.
+	* @throws WorkException if the name has no id after it was created
+	*/
+	long getID( String name )
+		throws Exception
+		{
+		Long id = m_ids.get( name );
+		if ( id == null )
+			id = getIDs( Collections.singleton( name )).get( name );
+		if ( id == null )
+			throw new WorkException( "No id for '" + name + "' in " + m_table );
+		return id;
+		}
+
+	/**
+	* @return the id of the name, or null if it is not in the table, which
+	* is left unchanged.
+	*/
+	Long findID( String name )
+		throws Exception
+		{
+		Long id = m_ids.get( name );
+		if ( id != null )
+			return id;
+		WorkDatabase db = null;
+		try
+			{
+			db = new WorkDatabase();
+			return select( db, Collections.singletonList( name )).get( name );
+			}
+		finally { if ( db != null ) db.closeStatement(); }
+		}
+
+	/**
+	* @return the ids of the names, creating those that are new.
+	*/
+	Map<String,Long> getIDs( Collection<String> names )
+		throws Exception
+		{
+		Map<String,Long> ids = new HashMap<String,Long>();
+		List<String> missing = new ArrayList<String>();
+		for ( String name : names )
+			{
+			Long id = m_ids.get( name );
+			if ( id != null )
+				ids.put( name, id );
+			else if ( !ids.containsKey( name ))
+				{
+				ids.put( name, null );
+				missing.add( name );
+				}
+			}
+		if ( missing.isEmpty())
+			return ids;
+
+		WorkDatabase db = null;
+		try
+			{
+			db = new WorkDatabase();
+			List<Object[]> rows = new ArrayList<Object[]>( missing.size());
+			for ( String name : missing )
+				rows.add( new Object[] { name });
+			db.executeBatch( m_insert, rows );
+			ids.putAll( select( db, missing ));
+			}
+		finally { if ( db != null ) db.closeStatement(); }
+		return ids;
+		}
+
+	/**
+	* Read the ids of the names from the table, and cache them.
+	* @return the ids of the names found, keyed by the names as given
+	*/
+	private Map<String,Long> select( WorkDatabase db, List<String> names )
+		throws Exception
+		{
+		Map<String,Long> found = new HashMap<String,Long>(); // as stored
+		for ( int i = 0; i < names.size(); i += CHUNK )
+			{
+			Object[] chunk = new Object[CHUNK];
+			for ( int j = 0; j < CHUNK; j++ )
+				chunk[j] = names.get( Math.min( i + j, names.size() - 1 ));
+			ResultSet rs = db.executeQuery( m_selectIDs, chunk );
+			try
+				{
+				while ( rs.next())
+					found.put( rs.getString(2), rs.getLong(1));
+				}
+			finally { rs.close(); }
+			}
+		Map<String,Long> ids = new HashMap<String,Long>();
+		for ( String name : names )
+			{
+			Long id = found.get( name );
+			if ( id == null ) // the database matched it in another case
+				for ( Map.Entry<String,Long> row : found.entrySet())
+					if ( row.getKey().equalsIgnoreCase( name ))
+						id = row.getValue();
+			if ( id != null )
+				{
+				m_ids.put( name, id );
+				ids.put( name, id );
+				}
+			}
+		return ids;
+		}
+	}
@@ -4,25 +4,46 @@ package com.shanebow.spider.work.sql;
 * 
 * SQLWork: Extends WorkRecord to allow a change to a record's status be
 * committed to the database.
+*
+* A record claimed under a lease knows its owner, the claiming node, and
+* its status is only written while the row is still that node's: once
+* the lease has lapsed and the row has been reclaimed, perhaps claimed
+* by another node, a late update changes nothing.
 * 
 * @author Rick Salamone
 * @version 1.0
 */
 import com.shanebow.spider.work.WorkException;
 import com.shanebow.spider.work.WorkRecord;
+import com.shanebow.spider.work.URLKey;
+import com.shanebow.util.SBLog;
 
 public class SQLWork extends WorkRecord
 	{
 	// Static interface
-	static private WorkDatabase _db; // a SQL statement shared to update work status/lmdt
-	static void setWorkDatabase(WorkDatabase db) { _db = db; }
+	static private StatusWriter _writer = null; // null to update synchronously
+	static void setStatusWriter(StatusWriter writer) { _writer = writer; }
 
-	public SQLWork() throws WorkException { super(); }
+	static final String UPDATE_STATUS = "UPDATE " + SQLWorkload.TBL_WORK
+	                                  + " SET status = ?, lmdt = ?, lastModified = ?, etag = ?"
+	                                  + " WHERE id = ?";
+	static final String UPDATE_CLAIMED = UPDATE_STATUS + " AND owner = ?";
 
-	public SQLWork( long id, long idHost, java.net.URL url, char status,
+	private final String m_owner; // node that claimed the row, or null
+
+	public SQLWork() throws WorkException { super(); m_owner = null; }
+
+	public SQLWork( long id, long idHost, URLKey url, char status,
 	           int depth, long idSource, long idParser, long lmdt )
 		{
+		this( id, idHost, url, status, depth, idSource, idParser, lmdt, null );
+		}
+
+	SQLWork( long id, long idHost, URLKey url, char status,
+	         int depth, long idSource, long idParser, long lmdt, String owner )
+		{
 		super( id, idHost, url, status, depth, idSource, idParser, lmdt );
+		m_owner = owner;
 		}
 
 	@Override
@@ -30,12 +51,22 @@ public class SQLWork extends WorkRecord
 		throws WorkException
 		{
 		super.setStatus(status);
+		if ( _writer != null )
+			{
+			_writer.enqueue( getID(), status, getLMDT(), getLastModified(), getETag(), m_owner );
+			return;
+			}
+		WorkDatabase db = null;
 		try
 			{
-			String stmt = "UPDATE " + SQLWorkload.TBL_WORK
-			            + " SET status = ?, lmdt = ? WHERE id = ?;";
-			_db.executeUpdate( stmt, "" + status, getLMDT(), getID());
+			db = new WorkDatabase();
+			if ( m_owner == null )
+				db.executeUpdate( UPDATE_STATUS, status, getLMDT(), getLastModified(), getETag(), getID());
+			else if ( db.executeUpdate( UPDATE_CLAIMED, status, getLMDT(), getLastModified(),
+			                            getETag(), getID(), m_owner ) == 0 )
+				SBLog.write( SQLWorkload.MODULE, "lease lost, status not written: " + this );
 			}
 		catch ( Exception ex ) { throw new WorkException(ex); }
+		finally { if ( db != null ) db.closeStatement(); }
 		}
 	}
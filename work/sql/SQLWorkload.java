@@ -6,21 +6,98 @@ package com.shanebow.spider.work.sql;
 * workload manager handles the lists of URLs that have been
 * processed, resulted in an error, and are waiting to be processed.
 * Developed for use with the Heaton Research Spider.
+*
+* Several spiders may share one workload table. Each claims its work
+* under a lease: the claimed rows are marked active with the nodeID as
+* owner and a lease expiry, which the node renews while it runs. Rows
+* whose lease has expired, because their node has stopped, go back to
+* waiting for the other nodes.
+*
+* With the recrawl option, the urls already processed go back to waiting
+* on startup, if the table holds no unfinished work: a node that starts
+* while urls are still waiting or active, e.g. after an interrupted
+* recrawl, resumes that crawl rather than starting it over. Each url
+* keeps the Last-Modified and ETag of its last fetch, so a page that has
+* not changed comes back 304 Not Modified and is not downloaded or
+* parsed again; its outlinks are still in the table, and so are
+* rechecked without it.
 * 
 * @author Rick Salamone
 * @version 1.0
 */
 import com.shanebow.spider.Spider;
+import com.shanebow.spider.SpiderHook;
 import com.shanebow.spider.work.*;
 import com.shanebow.util.SBLog;
-import java.net.URL;
 import java.sql.*;
 
 public final class SQLWorkload
-	implements Workload
+	implements ErrorLog
 	{
 	public static final String MODULE="SQLWork";
 	public static final String TBL_WORK = "spiderWork";
+	public static final String TBL_HOST = "spiderHost";
+	public static final String TBL_PARSER = "spiderParser";
+	public static final String TBL_ERROR = "spiderError";
+
+	/**
+	* The columns of a new row, in the order of the parameters to
+	* m_insert, and their types. The url_hash is the 64-bit fingerprint of
+	* the url, and must have a unique index: the insert relies on it to
+	* ignore urls that are already in the workload.
+	*/
+	private static final String[] INSERT_COLUMNS = { "idHost", "url", "status",
+	                 "depth", "idSource", "idParser", "lmdt", "url_hash", "urlType" };
+	private static final String[] INSERT_TYPES = { "BIGINT", "VARCHAR(4000)",
+	                 "CHAR(1)", "INT", "BIGINT", "BIGINT", "BIGINT", "BIGINT", "VARCHAR(10)" };
+	private static final String SELECT_WAITING
+		= "SELECT id,idHost,url,status,depth,idSource,idParser,lmdt,lastModified,etag,urlType"
+		+ " FROM " + TBL_WORK + " WHERE status = ? AND id > ? ORDER BY id";
+	private static final String RESET_DONE
+		= "UPDATE " + TBL_WORK + " SET status = ?, owner = NULL WHERE status IN (?,?)";
+	private static final String CLAIM_WORK
+		= "UPDATE " + TBL_WORK + " SET status = ?, owner = ?, lease = ?"
+		+ " WHERE id = ? AND status = ?";
+	private static final String RELEASE_WORK
+		= "UPDATE " + TBL_WORK + " SET status = ?, owner = NULL"
+		+ " WHERE id = ? AND status = ? AND owner = ?";
+	private static final String RESET_ACTIVE
+		= "UPDATE " + TBL_WORK + " SET status = ?, owner = NULL"
+		+ " WHERE status = ? AND owner = ?";
+	private static final String RECLAIM_EXPIRED
+		= "UPDATE " + TBL_WORK + " SET status = ?, owner = NULL"
+		+ " WHERE status = ? AND lease < ?";
+	private static final String RENEW_LEASES
+		= "UPDATE " + TBL_WORK + " SET lease = ? WHERE status = ? AND owner = ?";
+	private static final String SELECT_LEASED
+		= "SELECT id FROM " + TBL_WORK + " WHERE status = ? AND lease >= ?";
+	private static final String SELECT_UNFINISHED
+		= "SELECT id FROM " + TBL_WORK + " WHERE status IN (?,?)";
+	private static final String SELECT_CLAIMED
+		= "SELECT id FROM " + TBL_WORK + " WHERE status = ? AND owner = ? AND lease = ?";
+
+	/**
+	* How long after a claim comes back empty before the table is read
+	* again, unless this node adds urls in the meantime.
+	*/
+	private static final long CLAIM_WAIT = Spider.POLL_WAIT;
+
+	/**
+	* When there is no work to claim, how long to rely on finding other
+	* rows still leased before checking, and reclaiming expired leases,
+	* again.
+	*/
+	private static final long LEASE_CHECK_WAIT = 1000;
+
+	// Per host queries, indexed on spiderWork (idHost,status,id)
+	private static final String SELECT_HOST_WORK
+		= "SELECT id,idHost,url,status,depth,idSource,idParser,lmdt,urlType"
+		+ " FROM " + TBL_WORK + " WHERE idHost = ? AND status = ? ORDER BY id";
+	private static final String COUNT_HOST_WORK
+		= "SELECT COUNT(*) FROM " + TBL_WORK + " WHERE idHost = ? AND status = ?";
+	private static final String COUNT_BY_HOST
+		= "SELECT h.name, COUNT(*) FROM " + TBL_WORK + " w JOIN " + TBL_HOST
+		+ " h ON h.id = w.idHost WHERE w.status = ? GROUP BY h.name";
 
 	private void log( String format, Object... args )
 		{
@@ -28,7 +105,21 @@ public final class SQLWorkload
 		}
 
 	Spider m_spider;
-	java.util.Queue<WorkRecord> m_cache = null;
+	java.util.concurrent.BlockingQueue<WorkRecord> m_cache = null;
+	private InsertBuffer m_buffer = null; // null for an insert per add
+	private StatusWriter m_writer = null; // null for synchronous updates
+	private ErrorWriter m_errors = null;
+	private long m_watermark = 0; // highest id claimed since the last wrap
+	private long m_emptyClaimTime = 0; // when a claim last came back empty
+	private volatile boolean m_added = false; // urls added since then
+	private long m_leaseCheckTime = 0;
+	private boolean m_leased = false;  // as of m_leaseCheckTime
+	private String m_insert;      // insert if absent, in the db's dialect
+	private String m_nodeID;      // owner of the rows this node claims
+	private long m_leaseTime;
+	private java.util.Timer m_leaseTimer;
+	private NameTable m_hosts;
+	private long m_idParser = SQLWork.NULL_ID;
 
 	/**
 	* Setup this workload manager for the specified spider.
@@ -41,11 +132,47 @@ public final class SQLWorkload
 		throws WorkException
 		{
 		m_spider = spider;
+		if ( spider.getOptions().leaseTime < 3 ) // renewed every third of it
+			throw new WorkException( "leaseTime must be at least 3 ms, not "
+			                       + spider.getOptions().leaseTime );
 		WorkDatabase.connect( spider.getOptions());
-		try { SQLWork.setWorkDatabase( new WorkDatabase()); }
-		catch ( SQLException e) { throw new WorkException(e); }
-		m_cache = new java.util.concurrent.ArrayBlockingQueue<WorkRecord>( spider.getOptions().poolQueueSize + 10);
-log ( "initialized" );
+		if ( spider.getOptions().dbCreateTables )
+			{
+			try { Schema.create( WorkDatabase.getDialect()); }
+			catch ( Exception ex ) { throw new WorkException(ex); }
+			}
+		m_insert = WorkDatabase.getDialect().insertIfAbsent( TBL_WORK,
+		                          INSERT_COLUMNS, INSERT_TYPES, "url_hash" );
+		m_hosts = new NameTable( TBL_HOST, WorkDatabase.getDialect());
+		try
+			{
+			m_idParser = new NameTable( TBL_PARSER, WorkDatabase.getDialect())
+			                  .getID( spider.getOptions().parserClass.getName());
+			}
+		catch ( Exception ex ) { throw new WorkException(ex); }
+		m_cache = new java.util.concurrent.ArrayBlockingQueue<WorkRecord>( Math.max(
+		             spider.getOptions().poolQueueSize + 10, spider.getOptions().sqlClaimSize ));
+		if ( spider.getOptions().sqlBatchSize > 1 )
+			m_buffer = new InsertBuffer( this, spider.getOptions());
+		if ( spider.getOptions().sqlStatusInterval > 0 )
+			SQLWork.setStatusWriter( m_writer = new StatusWriter( spider.getOptions()));
+		m_errors = new ErrorWriter( spider.getOptions());
+		m_nodeID = spider.getOptions().nodeID;
+		m_leaseTime = spider.getOptions().leaseTime;
+		resetActive();
+		if ( spider.getOptions().recrawl )
+			{
+			if ( exists( SELECT_UNFINISHED, WorkRecord.WAITING, WorkRecord.ACTIVE ))
+				log( "recrawl: resuming, unfinished work in the table" );
+			else log( "recrawl: %d urls returned to waiting",
+			     update( RESET_DONE, WorkRecord.WAITING, WorkRecord.SUCCESS, WorkRecord.ERROR ));
+			}
+		m_leaseTimer = new java.util.Timer( "SQLWorkload leases", true );
+		m_leaseTimer.schedule( new java.util.TimerTask()
+			{
+			public void run() { renewLeases(); }
+			}, m_leaseTime / 3, m_leaseTime / 3 );
+log ( "initialized node %s", m_nodeID );
 		}
 
 	/**
@@ -57,47 +184,60 @@ log ( "initialized" );
 	public boolean add( String url )
 		throws WorkException
 		{
-		return add( WorkRecord.toURL(url), null, WorkRecord.WAITING );
+		return add( URLKey.of(WorkRecord.toURL(url)), null, WorkRecord.WAITING );
 		}
 
 	/**
-	* Add the specified URL to the workload.
+	* Add the specified URL, found by a hyperlink, to the workload.
+	* @param  url    The URL to be added.
+	* @param  source The Workrecord that contains this URL.
+	* @param  status The processing status of this URL.
+	* @return true   if the URL was added, false otherwise.
+	* @throws WorkException
+	*/
+	public boolean add(URLKey url, WorkRecord source, char status )
+		throws WorkException
+		{
+		return add( url, source, status, SpiderHook.URLType.HYPERLINK );
+		}
+
+	/**
+	* Add the specified URL to the workload. When buffering, the URL is
+	* inserted on the next flush, unless it proves to be in the database
+	* already.
 	* @param  url    The URL to be added
 	* @param  source The page that contains this URL
 	* @param  status The processing status of this URL
+	* @param  type   How the URL was found, kept with the record
 	* @return True   if the URL was added, false otherwise.
 	* @throws WorkException
 	*/
-	public boolean add(URL url, WorkRecord source, char status )
+	public boolean add(URLKey url, WorkRecord source, char status,
+	                   SpiderHook.URLType type )
 		throws WorkException
 		{
+		if ( m_buffer != null )
+			{
+			if ( !m_buffer.add( url, source, status, type ))
+				return false;
+			m_added = true;
+			return true;
+			}
 		int result = 0;
 		int depth = 0;
 		long idSource = SQLWork.NULL_ID;
 		WorkDatabase dbStatement = null;
-		ResultSet rs = null;
-		String urlString = url.toString().trim();
 		try
 			{
-			dbStatement = new WorkDatabase();
-			// first see if the database contains this url
-			int hash = computeHash(url);
-			String stmt = "SELECT url FROM " + TBL_WORK + " WHERE url_hash = ?;";
-			rs = dbStatement.executeQuery( stmt, hash );
-			while (rs.next())
-				if ( urlString.equals(rs.getString(1))) // TBL_WORK.url
-					return false;
-
 			if ( source != null )
 				{
 				depth = source.getDepth() + 1;
 				idSource = source.getID();
 				}
-			stmt = "INSERT INTO " + TBL_WORK
-			     + " (idHost,url,status,depth,idSource,idParser,lmdt,url_hash)"
-			     + " VALUES(?,?,?,?,?,?,?,?);";
-			result = dbStatement.executeUpdate( stmt, getHostID(url), urlString,
-				                "" + status, depth, idSource, getParserID(), SQLWork.timeNow(), hash );
+			dbStatement = new WorkDatabase(); // inserts unless already there
+			result = dbStatement.executeUpdate( m_insert, getHostID(url), url.toString(),
+				status, depth, idSource, getParserID(), SQLWork.timeNow(), computeHash(url),
+				type.name());
 			}
 		catch ( Exception ex )
 			{
@@ -105,26 +245,178 @@ log ( "initialized" );
 		log ( "add(%s) EXCEPTION %s", url, ex );
 			throw new WorkException(ex);
 			}
+		finally { if ( dbStatement != null) dbStatement.closeStatement(); }
+		if ( result != 1 )
+			return false;
+		m_added = true;
+		return true;
+		}
+
+	/**
+	* @return the URLType stored in the urlType column, HYPERLINK if null
+	*/
+	static SpiderHook.URLType toType( String urlType )
+		{
+		return (urlType == null) ? SpiderHook.URLType.HYPERLINK
+		                         : SpiderHook.URLType.valueOf( urlType.trim());
+		}
+
+	/**
+	* @return the name under which the url's host is kept in TBL_HOST:
+	* the host name, and the port if not the default.
+	*/
+	static String hostName(URLKey url)
+		{
+		return url.getAuthority();
+		}
+
+	/**
+	* @return the id of the url's host, adding the host if it is new
+	*/
+	long getHostID(URLKey url)
+		throws Exception
+		{
+		return m_hosts.getID( hostName(url));
+		}
+
+	/**
+	* @return the ids of the hosts of the urls, adding the new ones as a
+	* batch, keyed by hostName()
+	*/
+	java.util.Map<String,Long> getHostIDs(java.util.Collection<URLKey> urls)
+		throws Exception
+		{
+		java.util.Set<String> names = new java.util.HashSet<String>();
+		for ( URLKey url : urls )
+			names.add( hostName(url));
+		return m_hosts.getIDs( names );
+		}
+
+	/**
+	* @return the id of the parser class in TBL_PARSER
+	*/
+	long getParserID()
+		{
+		return m_idParser;
+		}
+
+	/**
+	* Get the work for a host, in id order. The work is not claimed.
+	* @param  host   The host, with the port if not the default
+	* @param  status The status of the work
+	* @param  max    The maximum number of records to return
+	* @return the work records
+	* @throws WorkException on database error
+	*/
+	public java.util.List<WorkRecord> getHostWork( String host, char status, int max )
+		throws WorkException
+		{
+		java.util.List<WorkRecord> list = new java.util.ArrayList<WorkRecord>();
+		WorkDatabase dbStatement = null;
+		ResultSet rs = null;
+		try
+			{
+			Long idHost = m_hosts.findID( host.toLowerCase());
+			if ( idHost == null ) // never seen, so no work
+				return list;
+			dbStatement = new WorkDatabase();
+			rs = dbStatement.executeQuery( max, SELECT_HOST_WORK, idHost, status );
+			while (rs.next())
+				{
+				WorkRecord wr = new SQLWork(
+						rs.getLong(1),             // id
+						rs.getLong(2),             // idHost
+						URLKey.parse(rs.getString(3)), // url
+						rs.getString(4).charAt(0), // status
+						rs.getInt(5),              // depth
+						rs.getLong(6),             // idSource
+						rs.getLong(7),             // idParser
+						rs.getLong(8));            // lmdt
+				wr.setType( toType( rs.getString(9)));
+				list.add( wr );
+				}
+			}
+		catch ( Exception ex ) { throw new WorkException(ex); }
+		finally
+			{
+			if ( dbStatement != null)
+				{
+				if ( rs != null ) {try { rs.close(); } catch (Exception e) {}}
+				dbStatement.closeStatement();
+				}
+			}
+		return list;
+		}
+
+	/**
+	* @param  host   The host, with the port if not the default
+	* @param  status The status to count, e.g. WorkRecord.ERROR
+	* @return the number of the host's urls with the status
+	* @throws WorkException on database error
+	*/
+	public int count( String host, char status )
+		throws WorkException
+		{
+		WorkDatabase dbStatement = null;
+		ResultSet rs = null;
+		try
+			{
+			Long idHost = m_hosts.findID( host.toLowerCase());
+			if ( idHost == null )
+				return 0;
+			dbStatement = new WorkDatabase();
+			rs = dbStatement.executeQuery( COUNT_HOST_WORK, idHost, status );
+			return rs.next() ? rs.getInt(1) : 0;
+			}
+		catch ( Exception ex ) { throw new WorkException(ex); }
 		finally
 			{
 			if ( dbStatement != null)
 				{
-				if ( rs != null )
-					{try { rs.close(); } catch (Exception e) {}}
+				if ( rs != null ) {try { rs.close(); } catch (Exception e) {}}
 				dbStatement.closeStatement();
 				}
 			}
-		return (result == 1);
 		}
 
-	private long getHostID(URL url)
+	/**
+	* @param  status The status to count, e.g. WorkRecord.ERROR
+	* @return the number of urls with the status for each host that has any
+	* @throws WorkException on database error
+	*/
+	public java.util.Map<String,Integer> countByHost( char status )
+		throws WorkException
 		{
-		return SQLWork.NULL_ID;
+		java.util.Map<String,Integer> counts = new java.util.TreeMap<String,Integer>();
+		WorkDatabase dbStatement = null;
+		ResultSet rs = null;
+		try
+			{
+			dbStatement = new WorkDatabase();
+			rs = dbStatement.executeQuery( COUNT_BY_HOST, status );
+			while (rs.next())
+				counts.put( rs.getString(1), rs.getInt(2));
+			}
+		catch ( Exception ex ) { throw new WorkException(ex); }
+		finally
+			{
+			if ( dbStatement != null)
+				{
+				if ( rs != null ) {try { rs.close(); } catch (Exception e) {}}
+				dbStatement.closeStatement();
+				}
+			}
+		return counts;
 		}
 
-	private long getParserID()
+	/**
+	* Queue the error for insertion into TBL_ERROR.
+	*/
+	public void logError( WorkRecord work, java.net.URL url, String message,
+	                      SpiderHook.ErrorLevel level )
 		{
-		return SQLWork.NULL_ID;
+		m_errors.enqueue( work.getID(), url.toString(), work.getSourceID(),
+		                  level.name(), message, SQLWork.timeNow());
 		}
 
 	/**
@@ -138,40 +430,227 @@ log ( "initialized" );
 
 	/**
 	* Determines whether the workload is empty. As a side effect,
-	* this implementation fills the work cache.
+	* this implementation fills the work cache. The workload is not empty
+	* while any node holds an unexpired lease, as its work may yet add
+	* urls or come back.
 	* @return true if there are no more workload units.
 	* @throws WorkException if problem determining whether empty
 	*/
-	public boolean isEmpty() throws WorkException
+	public synchronized boolean isEmpty() throws WorkException
 		{
+		if ( m_cache.peek() == null )
+			fill();
 		if ( m_cache.peek() != null ) // if there's something in the cache
 			return false;              //  then it's not empty
+		return !awaitingLeases();
+		}
+
+	/**
+	* Claim more work for the empty cache, unless a claim has just come
+	* back empty and this node has added nothing since.
+	*/
+	private void fill()
+		throws WorkException
+		{
+		if ( !m_added && System.currentTimeMillis() - m_emptyClaimTime < CLAIM_WAIT )
+			return;
+		m_added = false;
+		if ( m_buffer != null )
+			m_buffer.flush();          // make any buffered urls visible
+		if ( claim() == 0 && m_watermark > 0 )
+			{
+			m_watermark = 0; // wrap around for rows that became waiting
+			claim();         //  below the watermark, e.g. released work
+			}
+		if ( m_cache.peek() == null )
+			m_emptyClaimTime = System.currentTimeMillis();
+		}
+
+	/**
+	* There is no work to claim: reclaim any expired leases and check for
+	* rows still leased. A positive answer is relied on for
+	* LEASE_CHECK_WAIT ms rather than rechecked on every poll.
+	* @return true if any expired leases were reclaimed, as those rows are
+	* waiting again, or if any node holds an unexpired lease on a row
+	*/
+	private boolean awaitingLeases()
+		throws WorkException
+		{
+		long now = System.currentTimeMillis();
+		if ( m_leased && now - m_leaseCheckTime < LEASE_CHECK_WAIT )
+			return true;
+		m_leaseCheckTime = now;
+		if ( reclaimExpired() > 0 )
+			{
+			m_added = true; // claim them on the next poll
+			m_leased = false;
+			return true;
+			}
+		m_leased = isLeased();
+		return m_leased;
+		}
+
+	/**
+	* Claim the next page of waiting rows above the watermark, in id order,
+	* marking them active under this node's lease in the same transaction.
+	* Each row is claimed by an update conditional on its still waiting, so
+	* a row read by several nodes goes to just one: only an update count of
+	* 1 is a claim. A driver that reports no count for the rows of a batch
+	* is asked which rows this claim holds. The page is limited to
+	* the room left in the cache, so the cost does not depend on the size
+	* of the table.
+	* @return the number of rows read
+	*/
+	private int claim()
+		throws WorkException
+		{
+		int limit = m_cache.remainingCapacity();
+		if ( limit == 0 )
+			return 0;
+		java.util.List<WorkRecord> page = new java.util.ArrayList<WorkRecord>( limit );
+		java.util.List<Object[]> claims = new java.util.ArrayList<Object[]>( limit );
+		int rows = 0;
+		long lease = System.currentTimeMillis() + m_leaseTime;
 		WorkDatabase dbStatement = null;
 		ResultSet rs = null;
-		try // get Waiting items from the queue
+		try // claim Waiting items from the queue
 			{
 			dbStatement = new WorkDatabase();
-			String stmt = "SELECT id,idHost,url,status,depth,idSource,idParser,lmdt"
-			            + " FROM " + TBL_WORK + " WHERE status = ?;";
-			rs = dbStatement.executeQuery( stmt, "" + WorkRecord.WAITING );
+			dbStatement.begin();
+			rs = dbStatement.executeQuery( limit, SELECT_WAITING, WorkRecord.WAITING, m_watermark );
 			while (rs.next())
 				{
-				try // to create a new WorkRecord & put into the queue
+				++rows;
+				long id = rs.getLong(1);
+				m_watermark = id;
+				if (( m_writer != null ) && m_writer.isPending( id ))
+					continue; // already processed, not yet written
+				try // to create a new WorkRecord
 					{
 					WorkRecord wr = new SQLWork(
-							rs.getLong(1),             // id
+							id,                        // id
 							rs.getLong(2),             // idHost
-							new URL(rs.getString(3)),  // url
-							rs.getString(4).charAt(0), // status
+							URLKey.parse(rs.getString(3)), // url
+							WorkRecord.ACTIVE,         // status
 							rs.getInt(5),              // depth
 							rs.getLong(6),             // idSource
 							rs.getLong(7),             // idParser
-							rs.getLong(8));            // lmdt
-					if ( !m_cache.offer( wr ))
-						break;
+							rs.getLong(8),             // lmdt
+							m_nodeID);                 // owner, as claimed
+					wr.setValidators( rs.getString(9), rs.getString(10));
+					wr.setType( toType( rs.getString(11)));
+					page.add( wr );
+					claims.add( new Object[] { WorkRecord.ACTIVE, m_nodeID, lease, id, WorkRecord.WAITING });
 					}
 				catch (Exception e) {}
 				}
+			rs.close();
+			rs = null;
+			int[] counts = claims.isEmpty() ? new int[0]
+			             : dbStatement.executeBatch( CLAIM_WORK, claims );
+			java.util.Set<Long> claimed = null;
+			for ( int count : counts )
+				if ( count == Statement.SUCCESS_NO_INFO ) // the driver did not say
+					{
+					claimed = selectClaimed( dbStatement, lease );
+					break;
+					}
+			dbStatement.commit();
+			for ( int i = 0; i < counts.length; i++ ) // claimed, not taken by someone else
+				if (( counts[i] == 1 )
+				||  (( counts[i] == Statement.SUCCESS_NO_INFO )
+				     && claimed.contains( page.get(i).getID())))
+					m_cache.offer( page.get(i));
+			}
+		catch ( Exception ex ) { throw new WorkException(ex); }
+		finally
+			{
+			if ( dbStatement != null)
+				{
+				if ( rs != null ) {try { rs.close(); } catch (Exception e) {}}
+				dbStatement.closeStatement();
+				}
+			}
+		return rows;
+		}
+
+	/**
+	* @return the ids of the rows claimed in the current transaction: the
+	* active rows of this node bearing the claim's lease, which a renewal
+	* has not yet moved on
+	*/
+	private java.util.Set<Long> selectClaimed( WorkDatabase dbStatement, long lease )
+		throws SQLException
+		{
+		java.util.Set<Long> ids = new java.util.HashSet<Long>();
+		ResultSet rs = dbStatement.executeQuery( SELECT_CLAIMED, WorkRecord.ACTIVE, m_nodeID, lease );
+		try
+			{
+			while ( rs.next())
+				ids.add( rs.getLong(1));
+			}
+		finally { rs.close(); }
+		return ids;
+		}
+
+	/**
+	* Return any rows left active by a previous run of this node to the
+	* waiting state.
+	*/
+	private void resetActive()
+		throws WorkException
+		{
+		int count = update( RESET_ACTIVE, WorkRecord.WAITING, WorkRecord.ACTIVE, m_nodeID );
+		if ( count > 0 )
+			log( "%d active urls returned to waiting", count );
+		}
+
+	/**
+	* Return the rows whose lease has expired to the waiting state.
+	* @return the number of rows reclaimed
+	*/
+	private int reclaimExpired()
+		throws WorkException
+		{
+		int count = update( RECLAIM_EXPIRED, WorkRecord.WAITING, WorkRecord.ACTIVE,
+		                    System.currentTimeMillis());
+		if ( count > 0 )
+			log( "%d expired leases reclaimed", count );
+		return count;
+		}
+
+	/**
+	* Extend the lease on all the rows this node has claimed.
+	*/
+	private void renewLeases()
+		{
+		try { update( RENEW_LEASES, System.currentTimeMillis() + m_leaseTime,
+		              WorkRecord.ACTIVE, m_nodeID ); }
+		catch ( WorkException ex ) { log( "lease renewal failed: %s", ex ); }
+		}
+
+	/**
+	* @return true if any node holds an unexpired lease on a row.
+	*/
+	private boolean isLeased()
+		throws WorkException
+		{
+		return exists( SELECT_LEASED, WorkRecord.ACTIVE, System.currentTimeMillis());
+		}
+
+	/**
+	* @return true if the query returns a row
+	*/
+	private boolean exists( String sql, Object... parameters )
+		throws WorkException
+		{
+		WorkDatabase dbStatement = null;
+		ResultSet rs = null;
+		try
+			{
+			dbStatement = new WorkDatabase();
+			rs = dbStatement.executeQuery( 1, sql, parameters );
+			return rs.next();
 			}
 		catch ( Exception ex ) { throw new WorkException(ex); }
 		finally
@@ -182,31 +661,83 @@ log ( "initialized" );
 				dbStatement.closeStatement();
 				}
 			}
-		return m_cache.peek() == null;
+		}
+
+	private int update( String sql, Object... parameters )
+		throws WorkException
+		{
+		WorkDatabase dbStatement = null;
+		try
+			{
+			dbStatement = new WorkDatabase();
+			return dbStatement.executeUpdate( sql, parameters );
+			}
+		catch ( Exception ex ) { throw new WorkException(ex); }
+		finally { if ( dbStatement != null) dbStatement.closeStatement(); }
 		}
 
 	/**
-	* Get a new URL to work on. Wait if there are no URL's currently
-	* available. Return null if done with the current host. The URL
-	* returned is marked as in progress.
-	* @return The next URL to parse
+	* Get a new URL to work on, from the cache, claiming more work if it
+	* is empty. The URL returned is marked as in progress.
+	* @return The next URL to parse, or null if none are waiting
 	* @throws WorkException if the next URL could not be obtained.
 	*/
-	public WorkRecord getWork()
+	public synchronized WorkRecord getWork()
 		throws WorkException
 		{
-		isEmpty(); // fills the cache
+		if ( m_cache.peek() == null )
+			fill();
 		return m_cache.poll();
 		}
 
-	private int computeHash(URL url)
+	/**
+	* @return the url_hash of the url, its 64-bit fingerprint
+	*/
+	static long computeHash(URLKey url)
 		{
-		String str = url.toString().trim();
-		return (0x7FFF & str.hashCode());
+		return url.hash64();
 		}
 
+	/**
+	* @return the SQL to insert a row unless its url_hash is present
+	*/
+	String getInsert() { return m_insert; }
+
 	public void shutdown()
 		{
+		m_leaseTimer.cancel();
+		releaseCache();
+		if ( m_buffer != null )
+			{
+			try { m_buffer.close(); }
+			catch (WorkException e) { log( "shutdown flush failed: %s", e ); }
+			}
+		if ( m_writer != null )
+			{
+			m_writer.close();
+			SQLWork.setStatusWriter( null );
+			}
+		m_errors.close();
 		WorkDatabase.disconnect();
 		}
+
+	/**
+	* Return the claimed but unprocessed work in the cache to waiting.
+	*/
+	private void releaseCache()
+		{
+		java.util.List<Object[]> rows = new java.util.ArrayList<Object[]>();
+		for ( WorkRecord wr; (wr = m_cache.poll()) != null; )
+			rows.add( new Object[] { WorkRecord.WAITING, wr.getID(), WorkRecord.ACTIVE, m_nodeID });
+		if ( rows.isEmpty())
+			return;
+		WorkDatabase dbStatement = null;
+		try
+			{
+			dbStatement = new WorkDatabase();
+			dbStatement.executeBatch( RELEASE_WORK, rows );
+			}
+		catch ( Exception ex ) { log( "shutdown release failed: %s", ex ); }
+		finally { if ( dbStatement != null) dbStatement.closeStatement(); }
+		}
 	}
@@ -0,0 +1,66 @@
+package com.shanebow.spider.work.sql;
+/**
+* Copyright 2010 by Richard T. Salamone, Jr.
+*
+* Schema: Creates the tables and indexes of the SQL workload that are
+* not already in the database, so that a fresh database, such as the
+* embedded default, is ready on the first run:
+*
+*   spiderWork   the urls: unique on url_hash, indexed on (status,id)
+*                for claiming and on (idHost,status,id) for host queries
+*   spiderHost   host names, see NameTable
+*   spiderParser parser class names
+*   spiderError  the errors logged, indexed on idWork
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.util.SBLog;
+import java.sql.SQLException;
+
+final class Schema
+	{
+	private Schema() {}
+
+	/**
+	* Create whichever tables are missing, along with their indexes.
+	* @throws SQLException if a table cannot be created
+	*/
+	static void create( Dialect dialect )
+		throws SQLException
+		{
+		String id = dialect.identity();
+		createTable( SQLWorkload.TBL_WORK, "id " + id
+			+ ", idHost BIGINT, url VARCHAR(4000) NOT NULL, status CHAR(1) NOT NULL"
+			+ ", depth INT, idSource BIGINT, idParser BIGINT, lmdt BIGINT"
+			+ ", url_hash BIGINT NOT NULL, owner VARCHAR(64), lease BIGINT"
+			+ ", lastModified VARCHAR(64), etag VARCHAR(255), urlType VARCHAR(10)",
+			"CREATE UNIQUE INDEX spiderWork_hash ON spiderWork (url_hash)",
+			"CREATE INDEX spiderWork_status ON spiderWork (status,id)",
+			"CREATE INDEX spiderWork_host ON spiderWork (idHost,status,id)" );
+		createTable( SQLWorkload.TBL_HOST, "id " + id + ", name VARCHAR(255) NOT NULL",
+			"CREATE UNIQUE INDEX spiderHost_name ON spiderHost (name)" );
+		createTable( SQLWorkload.TBL_PARSER, "id " + id + ", name VARCHAR(255) NOT NULL",
+			"CREATE UNIQUE INDEX spiderParser_name ON spiderParser (name)" );
+		createTable( SQLWorkload.TBL_ERROR, "id " + id
+			+ ", idWork BIGINT, url VARCHAR(4000), idSource BIGINT"
+			+ ", severity VARCHAR(10), message VARCHAR(1000), lmdt BIGINT",
+			"CREATE INDEX spiderError_work ON spiderError (idWork)" );
+		}
+
+	private static void createTable( String table, String columns, String... indexes )
+		throws SQLException
+		{
+		WorkDatabase db = new WorkDatabase();
+		try
+			{
+			if ( db.exists( table ))
+				return;
+			db.execute( "CREATE TABLE " + table + " (" + columns + ")" );
+			for ( String index : indexes )
+				db.execute( index );
+			SBLog.write( SQLWorkload.MODULE, "created table " + table );
+			}
+		finally { db.closeStatement(); }
+		}
+	}
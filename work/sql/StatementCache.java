@@ -0,0 +1,85 @@
+package com.shanebow.spider.work.sql;
+/**
+* Copyright 2010 by Richard T. Salamone, Jr.
+*
+* StatementCache: A database connection along with the PreparedStatements
+* that have been prepared on it, keyed by their SQL text, so that each
+* statement is parsed and planned by the database only once.
+*
+* A StatementCache is not thread safe: it must be used by one thread at
+* a time, see ConnectionPool and WorkDatabase.
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+
+final class StatementCache
+	{
+	private final Connection m_connection;
+	private final Map<String,PreparedStatement> m_statements
+	                           = new HashMap<String,PreparedStatement>();
+
+	long checkedOutAt; // nanoTime, maintained by the ConnectionPool
+
+	StatementCache( Connection connection )
+		{
+		m_connection = connection;
+		}
+
+	Connection getConnection() { return m_connection; }
+
+	/**
+	* @return the PreparedStatement for the sql, preparing it if need be.
+	*/
+	PreparedStatement prepare( String sql )
+		throws SQLException
+		{
+		PreparedStatement ps = m_statements.get( sql );
+		if ( ps == null )
+			{
+			ps = m_connection.prepareStatement( sql );
+			m_statements.put( sql, ps );
+			}
+		return ps;
+		}
+
+	/**
+	* Bind the parameters to the statement according to their types.
+	*/
+	static void bind( PreparedStatement ps, Object... parameters )
+		throws SQLException
+		{
+		for ( int i = 0; i < parameters.length; i++ )
+			{
+			Object it = parameters[i];
+			int index = i + 1;
+			if ( it == null )                 ps.setNull( index, Types.VARCHAR );
+			else if ( it instanceof String )  ps.setString( index, (String)it );
+			else if ( it instanceof Character ) ps.setString( index, it.toString());
+			else if ( it instanceof Long )    ps.setLong( index, (Long)it );
+			else if ( it instanceof Integer ) ps.setInt( index, (Integer)it );
+			else if ( it instanceof Short )   ps.setShort( index, (Short)it );
+			else if ( it instanceof Double )  ps.setDouble( index, (Double)it );
+			else if ( it instanceof Boolean ) ps.setBoolean( index, (Boolean)it );
+			else ps.setObject( index, it );
+			}
+		}
+
+	/**
+	* Close the prepared statements, and the connection.
+	*/
+	void close()
+		{
+		for ( PreparedStatement ps : m_statements.values())
+			{
+			try { ps.close(); }
+			catch (SQLException e) {}
+			}
+		m_statements.clear();
+		try { m_connection.close(); }
+		catch (SQLException e) {}
+		}
+	}
@@ -0,0 +1,136 @@
+package com.shanebow.spider.work.sql;
+/**
+* Copyright 2010 by Richard T. Salamone, Jr.
+*
+* StatusWriter: Writes the status changes of SQLWork records to the
+* database from a background thread, so that workers never wait on an
+* UPDATE. Changes are keyed by record id: a later change to a record
+* replaces one not yet written, so each record is written once per batch
+* with its final status. Batches are written every sqlStatusInterval ms,
+* or sooner once sqlBatchSize records are pending.
+*
+* The change to a claimed record is only written while its row is still
+* owned by the claiming node, as in SQLWork.setStatus().
+*
+* @author Rick Salamone
+* @version 1.0
+*/
+import com.shanebow.spider.SpiderOptions;
+import com.shanebow.util.SBLog;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class StatusWriter
+	implements Runnable
+	{
+	private final ConcurrentHashMap<Long,Object[]> m_pending
+	                                   = new ConcurrentHashMap<Long,Object[]>();
+	private final long m_interval;
+	private final int  m_batchSize;
+	private final Thread m_thread;
+	private final Object m_flushLock = new Object();
+	private volatile boolean m_running = true;
+	private final AtomicLong m_requested = new AtomicLong(); // status changes enqueued
+	private long m_written = 0; // rows updated
+	private long m_lost = 0;    // claimed rows no longer owned, not updated
+
+	StatusWriter( SpiderOptions opts )
+		{
+		m_interval = opts.sqlStatusInterval;
+		m_batchSize = Math.max( 1, opts.sqlBatchSize );
+		m_thread = new Thread( this, "StatusWriter" );
+		m_thread.setDaemon( true );
+		m_thread.start();
+		}
+
+	/**
+	* Queue the change of the record's status.
+	*/
+	void enqueue( long id, char status, long lmdt, String lastModified, String etag,
+	              String owner )
+		{
+		m_pending.put( id, (owner == null)
+		                   ? new Object[] { status, lmdt, lastModified, etag, id }
+		                   : new Object[] { status, lmdt, lastModified, etag, id, owner });
+		if ( m_requested.incrementAndGet() % m_batchSize == 0 )
+			synchronized (this) { notify(); }
+		}
+
+	/**
+	* @return true if a change to the record has yet to be written
+	*/
+	boolean isPending( long id ) { return m_pending.containsKey( id ); }
+
+	public void run()
+		{
+		while ( m_running )
+			{
+			synchronized (this)
+				{
+				if ( m_pending.size() < m_batchSize )
+					try { wait( m_interval ); }
+					catch (InterruptedException e) {}
+				}
+			flush();
+			}
+		}
+
+	/**
+	* Write the pending changes as a batch.
+	*/
+	void flush()
+		{
+		synchronized (m_flushLock) { writePending(); }
+		}
+
+	private void writePending()
+		{
+		if ( m_pending.isEmpty())
+			return;
+		List<Object[]> rows = new ArrayList<Object[]>( m_pending.size());
+		List<Object[]> claimed = new ArrayList<Object[]>( m_pending.size());
+		for ( Object[] row : m_pending.values())
+			(( row.length > 5 ) ? claimed : rows ).add( row );
+		WorkDatabase db = null;
+		try
+			{
+			db = new WorkDatabase();
+			if ( !rows.isEmpty())
+				db.executeBatch( SQLWork.UPDATE_STATUS, rows );
+			int lost = 0;
+			if ( !claimed.isEmpty())
+				for ( int count : db.executeBatch( SQLWork.UPDATE_CLAIMED, claimed ))
+					if ( count == 0 ) // not SUCCESS_NO_INFO, which is unknown
+						++lost;
+			if ( lost > 0 )
+				SBLog.write( SQLWorkload.MODULE, lost + " leases lost, their status not written" );
+			m_written += rows.size() + claimed.size() - lost;
+			m_lost += lost;
+			rows.addAll( claimed );
+			for ( Object[] row : rows ) // unless superseded meanwhile
+				m_pending.remove( row[4], row );
+			}
+		catch (Exception e)
+			{
+			SBLog.write( SQLWorkload.MODULE, "status update failed: " + e );
+			}
+		finally { if ( db != null ) db.closeStatement(); }
+		}
+
+	/**
+	* Stop the background thread and write everything still pending.
+	*/
+	void close()
+		{
+		m_running = false;
+		synchronized (this) { notify(); }
+		try { m_thread.join(); }
+		catch (InterruptedException e) {}
+		flush();
+		SBLog.write( SQLWorkload.MODULE, String.format(
+		             "StatusWriter: %d changes, %d rows written, %d leases lost",
+		             m_requested.get(), m_written, m_lost ));
+		}
+	}
@@ -4,6 +4,13 @@ package com.shanebow.spider.work.sql;
 * 
 * WorkDatabase: This class provides an interface to the physical
 * database that stores every URL ever visited by the spider.
+*
+* Statements are prepared once per connection and cached, and their
+* parameters are bound by type rather than pasted into the SQL text. A
+* WorkDatabase object checks a connection out of the ConnectionPool on
+* construction and has exclusive use of it until closeStatement() is
+* called, so it must always be closed, and any ResultSet it returns must
+* be closed before then.
 * 
 * @author Rick Salamone
 * @version 1.0
@@ -15,13 +22,22 @@ import java.net.*;
 
 public class WorkDatabase
 	{
-	private static Connection		_connection = null;
+	private static ConnectionPool _pool = null;
+	private static Dialect _dialect = Dialect.GENERIC;
+
+	/**
+	* @return the SQL dialect of the connected database
+	*/
+	static Dialect getDialect() { return _dialect; }
 
 	public static void disconnect()
 		{
-		try { if ( _connection != null ) _connection.close(); }
-		catch ( Exception e ) {}
-		finally { _connection = null; }
+		if ( _pool != null )
+			{
+			SBLog.write ( "WorkDatabase", _pool.getStats());
+			_pool.close();
+			}
+		_pool = null;
 		}
 
 	public static void connect( SpiderOptions opts )
@@ -29,20 +45,34 @@ public class WorkDatabase
 		try  { Class.forName( opts.dbClass ); } // Load the driver
 		catch ( ClassNotFoundException cnfex ) { bail( "load driver", cnfex ); }
 
+		try { _dialect = Dialect.of( opts.dbDialect, opts.dbURL ); }
+		catch ( IllegalArgumentException iaex ) { bail( "dialect", iaex ); }
+		_pool = new ConnectionPool( opts, _dialect );
 		try // connect to the database
 			{
-			_connection = DriverManager.getConnection( opts.dbURL, opts.dbUID, opts.dbPWD );
-			_connection.setAutoCommit(true);
+			_pool.release( _pool.borrow());
 			}
 		catch ( SQLException sqlex ) { bail( "connect", sqlex ); }
 		}
 
-	private Statement     m_statement = null;
+	/**
+	* @return the connection pool's wait time and utilization statistics
+	*/
+	public static String getPoolStats()
+		{
+		ConnectionPool pool = _pool;
+		return (pool == null) ? "not connected" : pool.getStats();
+		}
+
+	private StatementCache m_cache = null;
 
 	public WorkDatabase()
 		throws SQLException
 		{
-		m_statement = _connection.createStatement();
+		ConnectionPool pool = _pool;
+		if ( pool == null )
+			throw new SQLException( "Not connected" );
+		m_cache = pool.borrow();
 		}
 
 	private static final void log ( String caller, String msg )
@@ -53,50 +83,138 @@ public class WorkDatabase
 	public ResultSet executeQuery ( String stmt, Object... parameters )
 		throws SQLException
 		{
-		String sql = stuffParameters( stmt, parameters );
-		log ( "QUERY", sql );
-		return m_statement.executeQuery( sql );
+		return executeQuery ( 0, stmt, parameters );
+		}
+
+	/**
+	* Execute the query, returning at most maxRows rows; zero for no limit.
+	*/
+	public ResultSet executeQuery ( int maxRows, String stmt, Object... parameters )
+		throws SQLException
+		{
+		log ( "QUERY", stmt );
+		PreparedStatement ps = m_cache.prepare( stmt );
+		if ( ps.getMaxRows() != maxRows )
+			ps.setMaxRows( maxRows );
+		StatementCache.bind( ps, parameters );
+		return ps.executeQuery();
 		}
 
 	public int executeUpdate ( String stmt, Object... parameters )
 		throws SQLException
 		{
-		String sql = stuffParameters( stmt, parameters );
-		log ( "UPDATE", sql );
-		//	log( "executeUpdate", _connection.nativeSQL( sql ));
-		int result = m_statement.executeUpdate( sql );
+		log ( "UPDATE", stmt );
+		PreparedStatement ps = m_cache.prepare( stmt );
+		StatementCache.bind( ps, parameters );
+		int result = ps.executeUpdate();
 		log( "executeUpdate", "Insert " + (( result == 1 )? "success" : "failure"));
 		return result;
 		}
 
-	public void closeStatement()
+	/**
+	* Execute a statement that has no parameters, e.g. DDL; it is not cached.
+	*/
+	public void execute ( String stmt )
+		throws SQLException
+		{
+		log ( "EXECUTE", stmt );
+		Statement statement = m_cache.getConnection().createStatement();
+		try { statement.execute( stmt ); }
+		finally { statement.close(); }
+		}
+
+	/**
+	* @return true if the table exists
+	*/
+	public boolean exists ( String table )
+		throws SQLException
+		{
+		DatabaseMetaData meta = m_cache.getConnection().getMetaData();
+		for ( String name : new String[] { table, table.toUpperCase(), table.toLowerCase() })
+			{
+			ResultSet rs = meta.getTables( null, null, name, null );
+			try { if ( rs.next()) return true; }
+			finally { rs.close(); }
+			}
+		return false;
+		}
+
+	/**
+	* Execute the statement once for each row of parameters as a single
+	* JDBC batch.
+	* @return the update counts of the rows
+	*/
+	public int[] executeBatch ( String stmt, java.util.List<Object[]> rows )
+		throws SQLException
 		{
+		log ( "BATCH", stmt );
+		PreparedStatement ps = m_cache.prepare( stmt );
 		try
 			{
-			if ( m_statement != null )
-				m_statement.close();
+			for ( Object[] row : rows )
+				{
+				StatementCache.bind( ps, row );
+				ps.addBatch();
+				}
+			return ps.executeBatch();
+			}
+		catch (SQLException e)
+			{
+			ps.clearBatch(); // the statement is cached, do not leave it half built
+			throw e;
 			}
-		catch ( SQLException sqlex ) { 	logSQLError ( "closeStatement", sqlex ); }
-		finally { m_statement = null; }
 		}
 
-	private String stuffParameters( String template, Object... parameters )
+	/**
+	* Start a transaction: the statements executed until commit() or
+	* rollback() take effect together.
+	*/
+	public void begin()
+		throws SQLException
+		{
+		m_cache.getConnection().setAutoCommit(false);
+		}
+
+	public void commit()
+		throws SQLException
+		{
+		Connection connection = m_cache.getConnection();
+		connection.commit();
+		connection.setAutoCommit(true);
+		}
+
+	public void rollback()
 		{
-		String[] pieces = template.split("\\?");
-		String it = pieces[0];
-		for ( int i = 0; i < parameters.length; i++ )
+		Connection connection = m_cache.getConnection();
+		try
+			{
+			connection.rollback();
+			connection.setAutoCommit(true);
+			}
+		catch (SQLException e) { logSQLError( "rollback", e ); }
+		}
+
+	/**
+	* Return this object's connection to the pool; the prepared statements
+	* stay cached with the connection for its next WorkDatabase. A
+	* transaction left open is rolled back.
+	*/
+	public void closeStatement()
+		{
+		if ( m_cache != null )
 			{
-			String field = "";
-			if ( parameters[i] == null )
-				field = "";
-			else if (parameters[i] instanceof String)
-				field = "'" + parameters[i].toString() + "'";
-			else
-				field = parameters[i].toString();
-			it += field + pieces[i+1];
+			try
+				{
+				if ( !m_cache.getConnection().getAutoCommit())
+					rollback();
+				}
+			catch (SQLException e) { logSQLError( "closeStatement", e ); }
+			ConnectionPool pool = _pool;
+			if ( pool != null )
+				pool.release( m_cache );
+			else m_cache.close(); // disconnected meanwhile
+			m_cache = null;
 			}
-// System.out.println("SQL: " + it);
-		return it;
 		}
 
 	private static void bail( String msg, Exception ex )
@@ -108,13 +226,7 @@ public class WorkDatabase
 			SBLog.error ( msg, "Error: " + ex.toString() );
 			}
 		else SBLog.write ( msg );
-		try
-			{
-			if ( _connection != null )
-				_connection.close();
-			_connection = null;
-			}
-		catch ( SQLException sqlex ) { 	logSQLError ( "shutdown", sqlex ); }
+		disconnect();
 		System.exit ((ex == null) ? 0 : 1 );
 		}
 